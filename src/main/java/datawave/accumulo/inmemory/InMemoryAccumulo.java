@@ -16,18 +16,34 @@
  */
 package datawave.accumulo.inmemory;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.ConditionalWriter;
 import org.apache.accumulo.core.client.admin.TimeType;
 import org.apache.accumulo.core.client.security.tokens.PasswordToken;
 import org.apache.accumulo.core.clientImpl.Namespace;
+import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
 import org.apache.accumulo.core.metadata.MetadataTable;
 import org.apache.accumulo.core.metadata.RootTable;
@@ -38,15 +54,34 @@ import org.apache.accumulo.core.security.SystemPermission;
 import org.apache.accumulo.core.security.TablePermission;
 import org.apache.accumulo.core.util.tables.TableNameUtil;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 
 public class InMemoryAccumulo {
-    final Map<String,InMemoryTable> tables = new HashMap<>();
-    final Map<String,InMemoryNamespace> namespaces = new HashMap<>();
-    final Map<String,String> systemProperties = new HashMap<>();
-    Map<String,InMemoryUser> users = new HashMap<>();
+    /**
+     * Number of simulated tablet servers that the tablets of each table are assigned to. Defaults to one.
+     */
+    public static final String TABLET_SERVERS = Property.GENERAL_ARBITRARY_PROP_PREFIX.getKey() + "inmemory.tablet.servers";
+    
+    /**
+     * Set to true to run scanner and writer background work on virtual threads, one per task, when running on Java 21 or later. Defaults to false, which uses
+     * pools of platform threads.
+     */
+    public static final String VIRTUAL_THREADS = Property.GENERAL_ARBITRARY_PROP_PREFIX.getKey() + "inmemory.virtual.threads";
+    
+    private static final int TABLET_SERVER_PORT = 9997;
+    
+    final InMemoryCatalog<InMemoryTable> tables = new InMemoryCatalog<>();
+    final InMemoryCatalog<InMemoryNamespace> namespaces = new InMemoryCatalog<>();
+    final Map<String,String> systemProperties = new ConcurrentHashMap<>();
+    final Map<String,InMemoryUser> users = new ConcurrentHashMap<>();
     final FileSystem fs;
     final AtomicInteger tableIdCounter = new AtomicInteger(0);
+    private volatile InMemoryWriteAheadLog wal;
+    private final ReentrantReadWriteLock walLock = new ReentrantReadWriteLock();
+    private ExecutorService virtualScanExecutor;
+    private ExecutorService compactionExecutor;
+    private boolean closed = false;
     
     InMemoryAccumulo(FileSystem fs) {
         InMemoryUser root = new InMemoryUser("root", new PasswordToken(new byte[0]), Authorizations.EMPTY);
@@ -72,25 +107,287 @@ public class InMemoryAccumulo {
         return systemProperties.remove(key);
     }
     
+    /**
+     * Create an executor for background work, using virtual threads if {@link #VIRTUAL_THREADS} is set.
+     * 
+     * @param name
+     *            the prefix of the names of the executor's threads
+     * @param threads
+     *            the number of platform threads to use when not using virtual threads
+     * @return the executor, which the caller must shut down
+     */
+    ExecutorService newExecutor(String name, int threads) {
+        return InMemoryExecutors.newExecutor(name, threads, useVirtualThreads());
+    }
+    
+    /**
+     * Returns the executor shared by the scanners of this instance for asynchronous scans. This is a virtual thread per task executor if
+     * {@link #VIRTUAL_THREADS} is set and supported, and the common fork-join pool otherwise.
+     */
+    synchronized Executor getScanExecutor() {
+        if (closed || !useVirtualThreads() || !InMemoryExecutors.virtualThreadsAvailable())
+            return ForkJoinPool.commonPool();
+        if (virtualScanExecutor == null)
+            virtualScanExecutor = InMemoryExecutors.newExecutor("InMemoryScan", 1, true);
+        return virtualScanExecutor;
+    }
+    
+    /**
+     * Returns the executor shared by the tables of this instance for freezing and flushing full memtables in the background. It is created when first needed,
+     * so that it follows {@link #VIRTUAL_THREADS} as set by then.
+     * 
+     * @return the executor, or null once the instance has been closed
+     */
+    synchronized Executor getCompactionExecutor() {
+        if (closed)
+            return null;
+        if (compactionExecutor == null)
+            compactionExecutor = newExecutor("InMemoryCompaction", Runtime.getRuntime().availableProcessors());
+        return compactionExecutor;
+    }
+    
+    /**
+     * Shut down the background executors of this instance, waiting for freezes and flushes under way to finish, and close the write-ahead log. The instance
+     * remains usable; memtables that fill up later are frozen or flushed by their writers, and scans run on the common pool.
+     * 
+     * @throws IOException
+     *             if the write-ahead log could not be synced, or the wait was interrupted
+     */
+    public void close() throws IOException {
+        ExecutorService compaction;
+        ExecutorService scan;
+        synchronized (this) {
+            closed = true;
+            compaction = compactionExecutor;
+            scan = virtualScanExecutor;
+            compactionExecutor = null;
+            virtualScanExecutor = null;
+        }
+        if (scan != null)
+            scan.shutdown();
+        if (compaction != null) {
+            compaction.shutdown();
+            try {
+                compaction.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for background compactions");
+            }
+        }
+        closeWriteAheadLog();
+    }
+    
+    private boolean useVirtualThreads() {
+        return Boolean.parseBoolean(systemProperties.get(VIRTUAL_THREADS));
+    }
+    
+    /**
+     * Returns the addresses of the simulated tablet servers, as configured by {@link #TABLET_SERVERS}.
+     */
+    List<String> getTabletServers() {
+        String setting = systemProperties.get(TABLET_SERVERS);
+        int count = setting == null ? 1 : Math.max(1, Integer.parseInt(setting));
+        List<String> servers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            servers.add("localhost:" + (TABLET_SERVER_PORT + i));
+        }
+        return servers;
+    }
+    
     public void addMutation(String table, Mutation m) {
         InMemoryTable t = tables.get(table);
-        t.addMutation(m);
+        if (wal == null) {
+            t.addMutation(m);
+            return;
+        }
+        walLock.readLock().lock();
+        try {
+            InMemoryWriteAheadLog log = wal;
+            t.addMutation(m, log == null ? null : (now, mutation) -> log.append(t.getTableId(), now, mutation));
+        } finally {
+            walLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Add a conditional mutation to a table, logging it first if a write-ahead log is open. The write-ahead log lock is taken before the row lock, in the same
+     * order as {@link #addMutation(String, Mutation)}, so that conditional writers, batch writers and checkpoints can not deadlock.
+     * 
+     * @param table
+     *            the table name
+     * @param m
+     *            the mutation
+     * @param timeout
+     *            the number of milliseconds to wait for the row lock
+     * @param check
+     *            decides, while the row lock is held, whether the mutation is applied
+     * @return the status of the mutation, see {@link InMemoryTable#addMutation(Mutation, InMemoryTable.MutationLog, long, InMemoryTable.MutationCheck)}
+     * @throws IOException
+     *             if the check failed to read the table
+     * @throws InterruptedException
+     *             if interrupted while waiting for the row lock
+     */
+    ConditionalWriter.Status addConditionalMutation(String table, Mutation m, long timeout, InMemoryTable.MutationCheck check)
+                    throws IOException, InterruptedException {
+        InMemoryTable t = tables.get(table);
+        walLock.readLock().lock();
+        try {
+            InMemoryWriteAheadLog log = wal;
+            return t.addMutation(m, log == null ? null : (now, mutation) -> log.append(t.getTableId(), now, mutation), timeout, check);
+        } finally {
+            walLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Remove the entries in a range of rows from a table. If a write-ahead log is open, the deletion is logged and synced before it is applied.
+     * 
+     * @param table
+     *            the table name
+     * @param start
+     *            the first key to remove, or null to start at the beginning of the table
+     * @param end
+     *            the key after the last key to remove, or null to continue to the end of the table
+     * @throws IOException
+     *             if the deletion could not be logged, or a segment could not be rewritten
+     */
+    void deleteRows(String table, Key start, Key end) throws IOException {
+        InMemoryTable t = tables.get(table);
+        walLock.readLock().lock();
+        try {
+            InMemoryWriteAheadLog log = wal;
+            t.deleteRows(start, end, log == null ? null : (from, to) -> {
+                long position = log.appendDeleteRows(t.getTableId(), from, to);
+                log.sync();
+                return position;
+            });
+        } finally {
+            walLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Make all mutations added so far durable, if a write-ahead log is open.
+     * 
+     * @throws IOException
+     *             if the log could not be synced
+     */
+    void syncWriteAheadLog() throws IOException {
+        InMemoryWriteAheadLog log = wal;
+        if (log != null)
+            log.sync();
+    }
+    
+    /**
+     * Open a write-ahead log in the given local directory. Mutations and row deletions already in the log are first replayed into their tables, which are
+     * identified by id and must exist. Changes that the segments of a table already hold, as recorded when the segments were written, are skipped. After this
+     * returns, every mutation is appended to the log before it is applied, and is durable once the batch writer it
+     * was added through has been flushed or closed. Row deletions are durable once they return.
+     * <p>
+     * Only mutations and row deletions are logged. Table and security operations and bulk imports are not, so tables should be recreated, typically by
+     * {@link #importSnapshot(String)} of the latest {@link #checkpoint(String)}, before the log is opened, and a checkpoint should be taken after tables are
+     * created, deleted or imported.
+     * 
+     * @param dir
+     *            the log directory
+     * @throws IOException
+     *             if the log could not be replayed or opened, or it refers to a table that does not exist
+     */
+    public void openWriteAheadLog(String dir) throws IOException {
+        walLock.writeLock().lock();
+        try {
+            if (wal != null)
+                throw new IllegalStateException("A write-ahead log is already open");
+            Map<String,InMemoryTable> byId = new HashMap<>();
+            long segmentsPosition = 0;
+            for (InMemoryTable t : tables.values()) {
+                byId.put(t.getTableId(), t);
+                segmentsPosition = Math.max(segmentsPosition, t.getSegmentsPosition());
+            }
+            wal = InMemoryWriteAheadLog.open(Paths.get(dir), new InMemoryWriteAheadLog.Replay() {
+                @Override
+                public void mutation(long position, String tableId, long time, Mutation m) throws IOException {
+                    replayTable(byId, tableId).replayMutation(m, time, position);
+                }
+                
+                @Override
+                public void deleteRows(long position, String tableId, Key start, Key end) throws IOException {
+                    replayTable(byId, tableId).replayDeleteRows(start, end, position);
+                }
+            }, segmentsPosition);
+        } finally {
+            walLock.writeLock().unlock();
+        }
+    }
+    
+    private static InMemoryTable replayTable(Map<String,InMemoryTable> byId, String tableId) throws IOException {
+        InMemoryTable t = byId.get(tableId);
+        if (t == null)
+            throw new IOException("The write-ahead log refers to table id " + tableId + ", which does not exist");
+        return t;
+    }
+    
+    /**
+     * Write a snapshot of this instance to the given directory and truncate the write-ahead log to the mutations added after it. Writes are paused while the
+     * snapshot is written so that every logged mutation is either in the snapshot or in the remaining log, never both. The directory should not hold an earlier
+     * snapshot, so that a failure part way through leaves the previous snapshot intact.
+     * 
+     * @param dir
+     *            the snapshot directory
+     * @throws IOException
+     *             if the snapshot could not be written or the log could not be truncated
+     */
+    public void checkpoint(String dir) throws IOException {
+        walLock.writeLock().lock();
+        try {
+            if (wal == null)
+                throw new IllegalStateException("No write-ahead log is open");
+            long seq = wal.roll();
+            exportSnapshot(dir);
+            wal.deleteBefore(seq);
+        } finally {
+            walLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Sync and close the write-ahead log, if one is open. Later mutations are no longer logged.
+     * 
+     * @throws IOException
+     *             if the log could not be synced
+     */
+    public void closeWriteAheadLog() throws IOException {
+        walLock.writeLock().lock();
+        try {
+            if (wal != null)
+                wal.close();
+            wal = null;
+        } finally {
+            walLock.writeLock().unlock();
+        }
     }
     
     public BatchScanner createBatchScanner(String tableName, Authorizations authorizations) {
-        return new InMemoryBatchScanner(tables.get(tableName), authorizations);
+        InMemoryBatchScanner scanner = new InMemoryBatchScanner(tables.get(tableName), authorizations);
+        scanner.executor = getScanExecutor();
+        return scanner;
     }
     
-    public void createTable(String username, String tableName, boolean useVersions, TimeType timeType) {
+    public boolean createTable(String username, String tableName, boolean useVersions, TimeType timeType) {
         Map<String,String> opts = Collections.emptyMap();
-        createTable(username, tableName, useVersions, timeType, opts);
+        return createTable(username, tableName, useVersions, timeType, opts);
     }
     
-    public void createTable(String username, String tableName, boolean useVersions, TimeType timeType, Map<String,String> properties) {
+    /**
+     * Create a table unless its namespace does not exist or a table of the same name does. Concurrent calls for the same name create at most one table.
+     * 
+     * @return true if the table was created
+     */
+    public boolean createTable(String username, String tableName, boolean useVersions, TimeType timeType, Map<String,String> properties) {
         String namespace = TableNameUtil.qualify(tableName).getFirst();
         
-        if (!namespaceExists(namespace)) {
-            return;
+        if (!namespaceExists(namespace) || tables.containsKey(tableName)) {
+            return false;
         }
         
         InMemoryNamespace n = namespaces.get(namespace);
@@ -98,30 +395,89 @@ public class InMemoryAccumulo {
         t.userPermissions.put(username, EnumSet.allOf(TablePermission.class));
         t.setNamespaceName(namespace);
         t.setNamespace(n);
-        tables.put(tableName, t);
+        open(t);
+        return tables.putIfAbsent(tableName, t) == null;
+    }
+    
+    /**
+     * Create a table unless its namespace does not exist or a table of the same name does. Concurrent calls for the same name create at most one table.
+     * 
+     * @return true if the table was created
+     */
+    public boolean createTable(String username, String tableName, TimeType timeType, Map<String,String> properties) {
+        return createTable(username, tableName, null, timeType, properties);
     }
     
-    public void createTable(String username, String tableName, TimeType timeType, Map<String,String> properties) {
+    /**
+     * Create a table with the given id unless its namespace does not exist or a table of the same name does. Later tables are given higher ids.
+     * 
+     * @param tableId
+     *            the numeric id of the new table, or null to assign the next one
+     * @return true if the table was created
+     */
+    boolean createTable(String username, String tableName, String tableId, TimeType timeType, Map<String,String> properties) {
         String namespace = TableNameUtil.qualify(tableName).getFirst();
         HashMap<String,String> props = new HashMap<>(properties);
         
-        if (!namespaceExists(namespace)) {
-            return;
+        if (!namespaceExists(namespace) || tables.containsKey(tableName)) {
+            return false;
         }
         
+        if (tableId == null)
+            tableId = Integer.toString(tableIdCounter.incrementAndGet());
+        else
+            tableIdCounter.accumulateAndGet(Integer.parseInt(tableId), Math::max);
+        
         InMemoryNamespace n = namespaces.get(namespace);
-        InMemoryTable t = new InMemoryTable(n, timeType, Integer.toString(tableIdCounter.incrementAndGet()), props);
+        InMemoryTable t = new InMemoryTable(n, timeType, tableId, props);
         t.userPermissions.put(username, EnumSet.allOf(TablePermission.class));
         t.setNamespaceName(namespace);
         t.setNamespace(n);
-        tables.put(tableName, t);
+        open(t);
+        return tables.putIfAbsent(tableName, t) == null;
+    }
+    
+    private void open(InMemoryTable t) {
+        t.setCompactionExecutor(this::getCompactionExecutor);
+        t.setTableNames(this::getTableName);
+        try {
+            t.openSegments();
+            t.configureSampler();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open table " + t.getTableId(), e);
+        }
+    }
+    
+    /**
+     * Returns the name of the table with the given id, using the fixed ids of the root and metadata tables as {@link InMemoryTableOperations#tableIdMap()}
+     * does.
+     * 
+     * @return the name, or null if no table has the id
+     */
+    String getTableName(String tableId) {
+        for (Entry<String,InMemoryTable> entry : tables.snapshot().entries.entrySet()) {
+            if (tableId.equals(getTableId(entry.getKey(), entry.getValue())))
+                return entry.getKey();
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the id of a table as reported to clients, which for the root and metadata tables is their fixed id.
+     */
+    static String getTableId(String tableName, InMemoryTable t) {
+        if (RootTable.NAME.equals(tableName))
+            return RootTable.ID.canonical();
+        if (MetadataTable.NAME.equals(tableName))
+            return MetadataTable.ID.canonical();
+        return t.getTableId();
     }
     
     public void createNamespace(String username, String namespace) {
         if (!namespaceExists(namespace)) {
             InMemoryNamespace n = new InMemoryNamespace();
             n.userPermissions.put(username, EnumSet.allOf(NamespacePermission.class));
-            namespaces.put(namespace, n);
+            namespaces.putIfAbsent(namespace, n);
         }
     }
     
@@ -137,6 +493,30 @@ public class InMemoryAccumulo {
         tables.get(tableName).merge(start, end);
     }
     
+    /**
+     * Write the system properties, namespaces, users and tables of this instance to a directory of sorted RFiles plus a manifest on the instance file system.
+     * 
+     * @param dir
+     *            the snapshot directory
+     * @throws IOException
+     *             if the snapshot could not be written
+     */
+    public void exportSnapshot(String dir) throws IOException {
+        InMemorySnapshot.exportSnapshot(this, new Path(dir));
+    }
+    
+    /**
+     * Restore a snapshot written by {@link #exportSnapshot(String)} into this instance. The tables are loaded in parallel.
+     * 
+     * @param dir
+     *            the snapshot directory
+     * @throws IOException
+     *             if the snapshot could not be read, or one of its tables already exists
+     */
+    public void importSnapshot(String dir) throws IOException {
+        InMemorySnapshot.importSnapshot(this, new Path(dir));
+    }
+    
     private boolean namespaceExists(String namespace) {
         return namespaces.containsKey(namespace);
     }
@@ -62,7 +62,7 @@ public class InMemoryAccumuloClient extends ClientContext implements AccumuloCli
         if (!acu.users.containsKey(username)) {
             InMemoryUser user = new InMemoryUser(username, new PasswordToken(new byte[0]), Authorizations.EMPTY);
             user.permissions.add(SystemPermission.SYSTEM);
-            acu.users.put(user.name, user);
+            acu.users.putIfAbsent(user.name, user);
         }
     }
     
@@ -110,7 +110,7 @@ public class InMemoryAccumuloClient extends ClientContext implements AccumuloCli
     
     @Override
     public MultiTableBatchWriter createMultiTableBatchWriter(BatchWriterConfig config) {
-        return createMultiTableBatchWriter();
+        return new InMemoryMultiTableBatchWriter(acu, config);
     }
     
     @Override
@@ -123,7 +123,9 @@ public class InMemoryAccumuloClient extends ClientContext implements AccumuloCli
         InMemoryTable table = acu.tables.get(tableName);
         if (table == null)
             throw new TableNotFoundException(tableName, tableName, "no such table");
-        return new InMemoryScanner(table, authorizations);
+        InMemoryScanner scanner = new InMemoryScanner(table, authorizations);
+        scanner.executor = acu.getScanExecutor();
+        return scanner;
     }
     
     @Override
@@ -157,9 +159,10 @@ public class InMemoryAccumuloClient extends ClientContext implements AccumuloCli
     }
     
     @Override
-    public ConditionalWriter createConditionalWriter(String tableName, ConditionalWriterConfig config) {
-        // TODO add implementation
-        throw new UnsupportedOperationException();
+    public ConditionalWriter createConditionalWriter(String tableName, ConditionalWriterConfig config) throws TableNotFoundException {
+        if (acu.tables.get(tableName) == null)
+            throw new TableNotFoundException(tableName, tableName, "no such table");
+        return new InMemoryConditionalWriter(acu, tableName, config);
     }
     
     @Override
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.core.client.admin.ActiveScan;
+import org.apache.accumulo.core.client.admin.ScanState;
+import org.apache.accumulo.core.client.admin.ScanType;
+import org.apache.accumulo.core.data.Column;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.TabletId;
+import org.apache.accumulo.core.dataImpl.KeyExtent;
+import org.apache.accumulo.core.dataImpl.TabletIdImpl;
+import org.apache.accumulo.core.security.Authorizations;
+
+/**
+ * An {@link ActiveScan} describing a scan that is currently open against an in-memory table. In addition to the standard information this exposes the ranges
+ * being scanned, the number of entries returned so far, the time spent producing them, and a way to cancel the scan.
+ */
+public class InMemoryActiveScan extends ActiveScan {
+    
+    private final String tableName;
+    private final InMemoryScanSession session;
+    private final KeyExtent extent;
+    
+    InMemoryActiveScan(String tableName, InMemoryScanSession session, KeyExtent extent) {
+        this.tableName = tableName;
+        this.session = session;
+        this.extent = extent;
+    }
+    
+    @Override
+    public long getScanid() {
+        return session.scanId;
+    }
+    
+    @Override
+    public String getClient() {
+        return InMemoryInstance.genericAddress;
+    }
+    
+    @Override
+    public String getUser() {
+        return null;
+    }
+    
+    @Override
+    public String getTable() {
+        return tableName;
+    }
+    
+    @Override
+    public long getAge() {
+        return System.currentTimeMillis() - session.startTime;
+    }
+    
+    @Override
+    public long getLastContactTime() {
+        return System.currentTimeMillis() - session.getLastContactTime();
+    }
+    
+    @Override
+    public ScanType getType() {
+        return session.type;
+    }
+    
+    @Override
+    public ScanState getState() {
+        return session.getState();
+    }
+    
+    @Override
+    public TabletId getTablet() {
+        return new TabletIdImpl(extent);
+    }
+    
+    @Override
+    public List<Column> getColumns() {
+        return session.columns;
+    }
+    
+    @Override
+    public List<String> getSsiList() {
+        return session.ssiList;
+    }
+    
+    @Override
+    public Map<String,Map<String,String>> getSsio() {
+        return session.ssio;
+    }
+    
+    @Override
+    public Authorizations getAuthorizations() {
+        return session.auths;
+    }
+    
+    @Override
+    public long getIdleTime() {
+        if (session.getState() == ScanState.RUNNING)
+            return 0;
+        return getLastContactTime();
+    }
+    
+    public List<Range> getRanges() {
+        return session.ranges;
+    }
+    
+    /**
+     * @return the number of entries returned to the client so far
+     */
+    public long getEntriesRead() {
+        return session.getEntriesRead();
+    }
+    
+    /**
+     * @param unit
+     *            the desired time unit
+     * @return the time spent reading from the iterator stack on behalf of the client
+     */
+    public long getTimeSpent(TimeUnit unit) {
+        return session.getTimeSpent(unit);
+    }
+    
+    /**
+     * Cancel this scan. The client iterating over the scan will receive an exception on its next read.
+     */
+    public void cancel() {
+        session.cancel();
+    }
+    
+    public boolean isCancelled() {
+        return session.isCancelled();
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Aggregates computed inside a scan by {@link InMemoryScannerBase#aggregate(GroupBy)}, so that only the aggregates and not the matching entries are returned
+ * to the caller.
+ */
+public final class InMemoryAggregation {
+    
+    // distinct values counted exactly before switching to a HyperLogLog estimate
+    private static final int EXACT_DISTINCT = 64;
+    private static final int DISTINCT_PRECISION = 12;
+    
+    private InMemoryAggregation() {}
+    
+    /**
+     * How entries are grouped into aggregates.
+     */
+    public enum GroupBy {
+        /** One aggregate per row. */
+        ROW,
+        /** One aggregate per column family. */
+        COLUMN_FAMILY,
+        /** A single aggregate over everything scanned, keyed by the empty text. */
+        RANGE
+    }
+    
+    /**
+     * The aggregate of a group of entries. Every entry is counted; values that are decimal integers also contribute to the sum, minimum and maximum.
+     */
+    public static final class Aggregate {
+        private long count = 0;
+        private long numericCount = 0;
+        private long sum = 0;
+        private long min = Long.MAX_VALUE;
+        private long max = Long.MIN_VALUE;
+        private long[] exactDistinct = new long[0];
+        private InMemoryTableStatistics.HyperLogLog distinct;
+        
+        void add(Value value) {
+            count++;
+            byte[] bytes = value.get();
+            long hash = hash(bytes, value.getSize());
+            addDistinct(hash);
+            if (isNumeric(bytes, value.getSize())) {
+                long number = parse(bytes, value.getSize());
+                numericCount++;
+                sum += number;
+                min = Math.min(min, number);
+                max = Math.max(max, number);
+            }
+        }
+        
+        private void addDistinct(long hash) {
+            if (distinct != null) {
+                distinct.add(hash);
+                return;
+            }
+            int index = Arrays.binarySearch(exactDistinct, hash);
+            if (index >= 0)
+                return;
+            if (exactDistinct.length == EXACT_DISTINCT) {
+                distinct = new InMemoryTableStatistics.HyperLogLog(DISTINCT_PRECISION);
+                for (long h : exactDistinct) {
+                    distinct.add(h);
+                }
+                distinct.add(hash);
+                exactDistinct = null;
+                return;
+            }
+            int insert = -index - 1;
+            long[] grown = new long[exactDistinct.length + 1];
+            System.arraycopy(exactDistinct, 0, grown, 0, insert);
+            grown[insert] = hash;
+            System.arraycopy(exactDistinct, insert, grown, insert + 1, exactDistinct.length - insert);
+            exactDistinct = grown;
+        }
+        
+        void merge(Aggregate other) {
+            count += other.count;
+            numericCount += other.numericCount;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            if (other.distinct != null) {
+                if (distinct == null) {
+                    distinct = new InMemoryTableStatistics.HyperLogLog(DISTINCT_PRECISION);
+                    for (long h : exactDistinct) {
+                        distinct.add(h);
+                    }
+                    exactDistinct = null;
+                }
+                distinct.merge(other.distinct);
+            } else {
+                for (long h : other.exactDistinct) {
+                    addDistinct(h);
+                }
+            }
+        }
+        
+        /**
+         * Returns the number of entries.
+         */
+        public long getCount() {
+            return count;
+        }
+        
+        /**
+         * Returns the number of entries whose value is a decimal integer.
+         */
+        public long getNumericCount() {
+            return numericCount;
+        }
+        
+        /**
+         * Returns the sum of the numeric values, or 0 if there are none.
+         */
+        public long getSum() {
+            return sum;
+        }
+        
+        /**
+         * Returns the smallest numeric value, or {@link Long#MAX_VALUE} if there are none.
+         */
+        public long getMin() {
+            return min;
+        }
+        
+        /**
+         * Returns the largest numeric value, or {@link Long#MIN_VALUE} if there are none.
+         */
+        public long getMax() {
+            return max;
+        }
+        
+        /**
+         * Returns the number of distinct values. This is exact for small numbers of distinct values and a HyperLogLog estimate above that.
+         */
+        public long getDistinctEstimate() {
+            return distinct == null ? exactDistinct.length : distinct.estimate();
+        }
+        
+        @Override
+        public String toString() {
+            return "count=" + count + " sum=" + sum + " min=" + (numericCount == 0 ? "none" : min) + " max=" + (numericCount == 0 ? "none" : max) + " distinct="
+                            + getDistinctEstimate();
+        }
+    }
+    
+    /**
+     * Accumulates the aggregates of one piece of a scan. Consecutive entries of the same group are added without looking up or allocating the group again.
+     */
+    static final class Aggregator {
+        private final GroupBy groupBy;
+        private final Map<Text,Aggregate> groups = new HashMap<>();
+        private Text lastGroup;
+        private Aggregate last;
+        
+        Aggregator(GroupBy groupBy) {
+            this.groupBy = groupBy;
+        }
+        
+        void add(Key key, Value value) {
+            if (last == null || !sameGroup(key)) {
+                switch (groupBy) {
+                    case ROW:
+                        lastGroup = key.getRow();
+                        break;
+                    case COLUMN_FAMILY:
+                        lastGroup = key.getColumnFamily();
+                        break;
+                    default:
+                        lastGroup = new Text();
+                }
+                last = groups.computeIfAbsent(lastGroup, g -> new Aggregate());
+            }
+            last.add(value);
+        }
+        
+        private boolean sameGroup(Key key) {
+            switch (groupBy) {
+                case ROW:
+                    return key.compareRow(lastGroup) == 0;
+                case COLUMN_FAMILY:
+                    return key.compareColumnFamily(lastGroup) == 0;
+                default:
+                    return true;
+            }
+        }
+        
+        /**
+         * Merge the aggregates of another piece into this one.
+         */
+        void merge(Aggregator other) {
+            for (Map.Entry<Text,Aggregate> entry : other.groups.entrySet()) {
+                Aggregate aggregate = groups.get(entry.getKey());
+                if (aggregate == null)
+                    groups.put(entry.getKey(), entry.getValue());
+                else
+                    aggregate.merge(entry.getValue());
+            }
+        }
+        
+        /**
+         * Returns the aggregates by group, sorted by group.
+         */
+        SortedMap<Text,Aggregate> getAggregates() {
+            return new TreeMap<>(groups);
+        }
+    }
+    
+    /**
+     * A 64 bit FNV-1a hash finished with the MurmurHash3 mix, computed without allocating.
+     */
+    private static long hash(byte[] bytes, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) {
+            h ^= bytes[i];
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+    
+    private static boolean isNumeric(byte[] bytes, int length) {
+        int start = length > 0 && bytes[0] == '-' ? 1 : 0;
+        // longer values may overflow a long
+        if (length == start || length - start > 18)
+            return false;
+        for (int i = start; i < length; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9')
+                return false;
+        }
+        return true;
+    }
+    
+    private static long parse(byte[] bytes, int length) {
+        boolean negative = bytes[0] == '-';
+        long number = 0;
+        for (int i = negative ? 1 : 0; i < length; i++) {
+            number = number * 10 + (bytes[i] - '0');
+        }
+        return negative ? -number : number;
+    }
+}
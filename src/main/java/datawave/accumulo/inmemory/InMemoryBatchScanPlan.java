@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.KeyValue;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Plans and runs the ranges of a batch scan. The ranges are grouped by the tablet holding their start, as a tablet server would receive them, and each group
+ * is read through a single iterator stack that is re-seeked for each range instead of a new stack per range.
+ * <p>
+ * When the ranges of a group lie close together, seeking for every range can cost more than stepping over the entries between them. With a positive skip
+ * distance the stack is seeked to the end of the group, and the entries between ranges are stepped over with {@code next()} until more than the skip
+ * distance have been passed, at which point the stack is seeked to the next range. Stepping over entries is only equivalent to seeking for iterators that
+ * treat each entry on its own, such as filters and the versioning iterator.
+ */
+final class InMemoryBatchScanPlan {
+    
+    /**
+     * Creates an unseeked iterator stack for a group of ranges.
+     */
+    interface StackFactory {
+        SortedKeyValueIterator<Key,Value> create() throws IOException;
+    }
+    
+    private InMemoryBatchScanPlan() {}
+    
+    /**
+     * Group sorted, non-overlapping ranges by the tablet holding the start of each range.
+     * 
+     * @param splits
+     *            the split points of the table
+     * @param ranges
+     *            the ranges, sorted and not overlapping
+     * @return the groups of ranges, in order
+     */
+    static List<List<Range>> groupByTablet(NavigableSet<Text> splits, List<Range> ranges) {
+        List<List<Range>> groups = new ArrayList<>();
+        List<Range> group = null;
+        Text tabletEnd = null;
+        for (Range range : ranges) {
+            Text row = range.isInfiniteStartKey() ? null : range.getStartKey().getRow();
+            if (group != null && row != null && (tabletEnd == null || row.compareTo(tabletEnd) <= 0)) {
+                group.add(range);
+                continue;
+            }
+            group = new ArrayList<>();
+            group.add(range);
+            groups.add(group);
+            tabletEnd = row == null ? (splits.isEmpty() ? null : splits.first()) : splits.ceiling(row);
+        }
+        return groups;
+    }
+    
+    /**
+     * Returns the entries of each group of ranges in turn, creating the iterator stack of a group when the group is reached.
+     * 
+     * @param groups
+     *            the groups of ranges
+     * @param factory
+     *            creates the iterator stack for each group
+     * @param columnFamilies
+     *            the column families to seek with
+     * @param inclusive
+     *            whether the column families are included or excluded
+     * @param skipDistance
+     *            the number of entries to step over between ranges before seeking instead, or zero to always seek
+     * @return copies of the entries of all of the ranges, in order
+     */
+    static Iterator<Entry<Key,Value>> iterator(List<List<Range>> groups, StackFactory factory, Collection<ByteSequence> columnFamilies, boolean inclusive,
+                    long skipDistance) {
+        return new Iterator<Entry<Key,Value>>() {
+            private final Iterator<List<Range>> remaining = groups.iterator();
+            private GroupStack current;
+            
+            @Override
+            public boolean hasNext() {
+                try {
+                    while ((current == null || !current.hasTop()) && remaining.hasNext()) {
+                        current = new GroupStack(remaining.next(), factory.create(), skipDistance);
+                        current.seek(new Range(), columnFamilies, inclusive);
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return current != null && current.hasTop();
+            }
+            
+            @Override
+            public Entry<Key,Value> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Entry<Key,Value> entry = new KeyValue(new Key(current.getTopKey()), new Value(current.getTopValue()));
+                try {
+                    current.next();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                return entry;
+            }
+        };
+    }
+    
+    /**
+     * Reads the ranges of one group through one iterator stack. The top key and value are those of the stack, positioned on an entry within one of the
+     * ranges. Seeking starts over at the first range of the group; the range passed to {@link #seek(Range, Collection, boolean)} is ignored.
+     */
+    static final class GroupStack implements SortedKeyValueIterator<Key,Value> {
+        private final List<Range> ranges;
+        private final SortedKeyValueIterator<Key,Value> stack;
+        private final long skipDistance;
+        private Collection<ByteSequence> columnFamilies;
+        private boolean inclusive;
+        private int index = 0;
+        private boolean seeked = false;
+        private boolean justSeeked = false;
+        private long stepped = 0;
+        private boolean top = false;
+        
+        /**
+         * @param ranges
+         *            the ranges of the group, sorted and not overlapping
+         * @param stack
+         *            the unseeked iterator stack to read the group through
+         * @param skipDistance
+         *            the number of entries to step over between ranges before seeking instead, or zero to always seek
+         */
+        GroupStack(List<Range> ranges, SortedKeyValueIterator<Key,Value> stack, long skipDistance) {
+            this.ranges = ranges;
+            this.stack = stack;
+            this.skipDistance = skipDistance;
+        }
+        
+        @Override
+        public void init(SortedKeyValueIterator<Key,Value> source, Map<String,String> options, IteratorEnvironment env) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public SortedKeyValueIterator<Key,Value> deepCopy(IteratorEnvironment env) {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+            this.columnFamilies = columnFamilies;
+            this.inclusive = inclusive;
+            index = 0;
+            seeked = false;
+            top = findTop();
+        }
+        
+        @Override
+        public boolean hasTop() {
+            return top;
+        }
+        
+        @Override
+        public Key getTopKey() {
+            return stack.getTopKey();
+        }
+        
+        @Override
+        public Value getTopValue() {
+            return stack.getTopValue();
+        }
+        
+        @Override
+        public void next() throws IOException {
+            step();
+            top = findTop();
+        }
+        
+        private void seekRange() throws IOException {
+            Range range = ranges.get(index);
+            if (skipDistance > 0) {
+                Range last = ranges.get(ranges.size() - 1);
+                range = new Range(range.getStartKey(), range.isStartKeyInclusive(), last.getEndKey(), last.isEndKeyInclusive());
+            }
+            stack.seek(range, columnFamilies, inclusive);
+            seeked = true;
+            justSeeked = true;
+            stepped = 0;
+        }
+        
+        private void step() throws IOException {
+            stack.next();
+            justSeeked = false;
+        }
+        
+        private boolean findTop() throws IOException {
+            while (index < ranges.size()) {
+                if (!seeked)
+                    seekRange();
+                if (!stack.hasTop()) {
+                    // with a skip distance the stack was seeked to the end of the group
+                    if (skipDistance > 0)
+                        index = ranges.size();
+                    else
+                        index++;
+                    seeked = false;
+                    continue;
+                }
+                Key key = stack.getTopKey();
+                Range range = ranges.get(index);
+                if (range.afterEndKey(key)) {
+                    index++;
+                    stepped = 0;
+                    if (skipDistance == 0)
+                        seeked = false;
+                    continue;
+                }
+                if (range.beforeStartKey(key)) {
+                    if (skipDistance > 0 && !justSeeked && ++stepped > skipDistance)
+                        seekRange();
+                    else
+                        step();
+                    continue;
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -22,16 +22,21 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.admin.ScanType;
 import org.apache.accumulo.core.clientImpl.ScannerOptions;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
-import org.apache.accumulo.core.iteratorsImpl.system.SortedMapIterator;
 import org.apache.accumulo.core.security.Authorizations;
-import org.apache.commons.collections.iterators.IteratorChain;
 
 public class InMemoryBatchScanner extends InMemoryScannerBase implements BatchScanner, ScannerRebuilder, Cloneable {
     
@@ -42,6 +47,7 @@ public class InMemoryBatchScanner extends InMemoryScannerBase implements BatchSc
         InMemoryBatchScanner clone = new InMemoryBatchScanner(table, getAuthorizations());
         clone.ranges = (ranges == null ? null : new ArrayList<>(ranges));
         ScannerOptions.setOptions(clone, this);
+        clone.executor = executor;
         clone.retryTimeout = retryTimeout;
         
         return clone;
@@ -60,27 +66,95 @@ public class InMemoryBatchScanner extends InMemoryScannerBase implements BatchSc
         this.ranges = Range.mergeOverlapping(ranges);
     }
     
-    @SuppressWarnings("unchecked")
     @Override
     public Iterator<Entry<Key,Value>> iterator() {
         if (ranges == null) {
             throw new IllegalStateException("ranges not set");
         }
+        return cached(ScanType.BATCH, ranges, this::scan);
+    }
+    
+    /**
+     * Scan the ranges grouped by tablet, reading each group through one iterator stack, see {@link InMemoryBatchScanPlan}.
+     */
+    private Iterator<Entry<Key,Value>> scan() {
+        InMemoryScanSession session = startSession(ScanType.BATCH, ranges);
+        List<List<Range>> groups = InMemoryBatchScanPlan.groupByTablet(table.splits, ranges);
+        Iterator<Entry<Key,Value>> entries = InMemoryBatchScanPlan.iterator(groups, () -> createFilter(createSource(session)), createColumnBSS(fetchedColumns),
+                        !fetchedColumns.isEmpty(), table.getConfiguration().getBatchScanSkipEntries());
+        return session.track(entries);
+    }
+    
+    @Override
+    List<Range> getScanRanges() {
+        if (ranges == null) {
+            throw new IllegalStateException("ranges not set");
+        }
+        return ranges;
+    }
+    
+    /**
+     * Returns a spliterator over the scan that can be split along the ranges and the table's split points, for use with {@link #parallelStream()}.
+     */
+    @Override
+    public Spliterator<Entry<Key,Value>> spliterator() {
+        if (ranges == null) {
+            throw new IllegalStateException("ranges not set");
+        }
+        return createSpliterator(ScanType.BATCH, ranges);
+    }
+    
+    /**
+     * Returns a parallel stream over the results of the scan.
+     */
+    public Stream<Entry<Key,Value>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+    
+    /**
+     * Returns a publisher of the results of this scan for reactive consumers, reading on the scan executor of the instance.
+     */
+    public Flow.Publisher<Entry<Key,Value>> publisher() {
+        return publisher(executor);
+    }
+    
+    /**
+     * Returns a publisher of the results of this scan for reactive consumers. Each subscriber gets its own scan with the settings this scanner has now, read on
+     * the executor only as fast as the subscriber requests results.
+     */
+    public Flow.Publisher<Entry<Key,Value>> publisher(Executor executor) {
+        if (ranges == null) {
+            throw new IllegalStateException("ranges not set");
+        }
+        InMemoryBatchScanner scanner = clone();
+        return new InMemoryScanPublisher(scanner::iterator, executor);
+    }
+    
+    /**
+     * Pushes every result of the scan to the consumer without allocating an entry per result. The ranges are scanned in order, grouped by tablet as for
+     * {@link #iterator()}. The key and value passed to the consumer belong to the scan and are only valid until the consumer returns; copy them to keep them.
+     */
+    @Override
+    public void forEach(BiConsumer<? super Key,? super Value> keyValueConsumer) {
+        if (ranges == null) {
+            throw new IllegalStateException("ranges not set");
+        }
         
-        IteratorChain chain = new IteratorChain();
-        for (Range range : ranges) {
-            SortedKeyValueIterator<Key,Value> i = new SortedMapIterator(table.table);
-            try {
-                i = createFilter(i);
-                i.seek(range, createColumnBSS(fetchedColumns), !fetchedColumns.isEmpty());
-                if (i.hasTop()) {
-                    chain.addIterator(new IteratorAdapter(i));
-                }
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        InMemoryScanSession session = startSession(ScanType.BATCH, ranges);
+        long start = session.start();
+        try {
+            long skipDistance = table.getConfiguration().getBatchScanSkipEntries();
+            for (List<Range> group : InMemoryBatchScanPlan.groupByTablet(table.splits, ranges)) {
+                SortedKeyValueIterator<Key,Value> i = new InMemoryBatchScanPlan.GroupStack(group, createFilter(createSource(session)), skipDistance);
+                i.seek(new Range(), createColumnBSS(fetchedColumns), !fetchedColumns.isEmpty());
+                session.forEach(i, keyValueConsumer);
             }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            session.stop(start);
+            session.finish();
         }
-        return chain;
     }
     
     @Override
@@ -88,9 +162,9 @@ public class InMemoryBatchScanner extends InMemoryScannerBase implements BatchSc
         // Rebuild the set of ranges. We should drop all ranges up until the range that includes
         // the specified lastKey. The one that includes it will be modified to start at lastKey,
         // non-inclusive. All subsequent ranges will remain in the list.
-        // Note the key assumption here is that the ranges are processed in order (see IteratorChain
-        // used above) and that the ranges are non-overlapping (see Range.mergeOverlapping() used
-        // above).
+        // Note the key assumption here is that the ranges are processed in order (see
+        // InMemoryBatchScanPlan used above) and that the ranges are non-overlapping (see
+        // Range.mergeOverlapping() used above).
         if (lastKey != null) {
             List<Range> newRanges = new ArrayList<>();
             boolean found = false;
@@ -116,7 +190,4 @@ public class InMemoryBatchScanner extends InMemoryScannerBase implements BatchSc
         // now return a rebuild iterator stack using the new set of ranges.
         return iterator();
     }
-    
-    @Override
-    public void close() {}
 }
@@ -18,6 +18,10 @@ package datawave.accumulo.inmemory;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
+import java.io.IOException;
+import java.util.Collections;
+
+import org.apache.accumulo.core.client.AccumuloClient;
 import org.apache.accumulo.core.client.BatchWriter;
 import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.data.Mutation;
@@ -46,10 +50,25 @@ public class InMemoryBatchWriter implements BatchWriter {
         }
     }
     
+    /**
+     * Makes all mutations added so far durable when the instance has a write-ahead log open.
+     */
     @Override
-    public void flush() throws MutationsRejectedException {}
+    public void flush() throws MutationsRejectedException {
+        sync(acu);
+    }
     
     @Override
-    public void close() throws MutationsRejectedException {}
+    public void close() throws MutationsRejectedException {
+        flush();
+    }
+    
+    static void sync(InMemoryAccumulo acu) throws MutationsRejectedException {
+        try {
+            acu.syncWriteAheadLog();
+        } catch (IOException e) {
+            throw new MutationsRejectedException((AccumuloClient) null, Collections.emptyList(), Collections.emptyMap(), Collections.emptyList(), 1, e);
+        }
+    }
     
 }
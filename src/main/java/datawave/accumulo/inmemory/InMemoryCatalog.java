@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A copy-on-write map of names to catalog entries such as tables and namespaces. Reads go to an immutable, versioned snapshot and never block or contend;
+ * changes are serialized, applied to a copy and published atomically, so a reader always sees either all or none of a change such as a rename.
+ */
+final class InMemoryCatalog<V> extends AbstractMap<String,V> {
+    
+    /**
+     * An immutable state of the catalog.
+     */
+    static final class Version<V> {
+        final long number;
+        final Map<String,V> entries;
+        
+        Version(long number, Map<String,V> entries) {
+            this.number = number;
+            this.entries = Collections.unmodifiableMap(entries);
+        }
+    }
+    
+    private volatile Version<V> current = new Version<>(0, new HashMap<>());
+    
+    /**
+     * Returns the current state of the catalog, which does not change as the catalog is modified.
+     */
+    Version<V> snapshot() {
+        return current;
+    }
+    
+    /**
+     * Returns a number that increases every time the catalog is modified.
+     */
+    long getVersion() {
+        return current.number;
+    }
+    
+    @Override
+    public V get(Object key) {
+        return current.entries.get(key);
+    }
+    
+    @Override
+    public boolean containsKey(Object key) {
+        return current.entries.containsKey(key);
+    }
+    
+    @Override
+    public int size() {
+        return current.entries.size();
+    }
+    
+    /**
+     * Returns the entries of the current snapshot. Iterating over them is not affected by concurrent changes.
+     */
+    @Override
+    public Set<Entry<String,V>> entrySet() {
+        return current.entries.entrySet();
+    }
+    
+    @Override
+    public V put(String key, V value) {
+        V[] previous = newHolder();
+        update(entries -> previous[0] = entries.put(key, value));
+        return previous[0];
+    }
+    
+    @Override
+    public V putIfAbsent(String key, V value) {
+        V[] previous = newHolder();
+        update(entries -> previous[0] = entries.putIfAbsent(key, value));
+        return previous[0];
+    }
+    
+    @Override
+    public V remove(Object key) {
+        V[] previous = newHolder();
+        update(entries -> previous[0] = entries.remove(key));
+        return previous[0];
+    }
+    
+    @Override
+    public void clear() {
+        update(Map::clear);
+    }
+    
+    /**
+     * Atomically move an entry to a new name.
+     * 
+     * @param from
+     *            the current name
+     * @param to
+     *            the new name
+     * @return the moved entry, or null if there is no entry named from or there already is one named to
+     */
+    V rename(String from, String to) {
+        V[] moved = newHolder();
+        update(entries -> {
+            if (entries.containsKey(from) && !entries.containsKey(to)) {
+                moved[0] = entries.remove(from);
+                entries.put(to, moved[0]);
+            }
+        });
+        return moved[0];
+    }
+    
+    /**
+     * Apply several changes to the catalog as one atomic change. The changes are made to a copy of the current entries, which is published once they are
+     * done. Nothing is published if they throw.
+     */
+    synchronized void update(Consumer<Map<String,V>> changes) {
+        Version<V> version = current;
+        Map<String,V> entries = new HashMap<>(version.entries);
+        changes.accept(entries);
+        current = new Version<>(version.number + 1, entries);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private V[] newHolder() {
+        return (V[]) new Object[1];
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.accumulo.core.client.ConditionalWriter;
+import org.apache.accumulo.core.client.ConditionalWriterConfig;
+import org.apache.accumulo.core.client.Durability;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.Condition;
+import org.apache.accumulo.core.data.ConditionalMutation;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.core.security.ColumnVisibility;
+import org.apache.accumulo.core.security.VisibilityEvaluator;
+import org.apache.accumulo.core.security.VisibilityParseException;
+import org.apache.hadoop.io.Text;
+
+/**
+ * {@link ConditionalWriter} for a {@link InMemoryAccumulo} instance. Each conditional mutation is checked and applied while holding the lock for its row, so
+ * conditional mutations on different rows never wait for each other. Mutations passed to {@link #write(Iterator)} are processed on a pool of
+ * {@link ConditionalWriterConfig#getMaxWriteThreads()} threads and their results are returned in the order they complete.
+ * <p>
+ * Conditions are evaluated by scanning the condition's column with the table's scan iterators and the condition's iterators, using the authorizations of the
+ * writer's configuration. If the row lock can not be acquired within the configured timeout the result is {@link ConditionalWriter.Status#UNKNOWN} and the
+ * mutation is not applied.
+ */
+public class InMemoryConditionalWriter implements ConditionalWriter {
+    
+    private final InMemoryAccumulo acu;
+    private final String tableName;
+    private final InMemoryTable table;
+    private final Authorizations auths;
+    private final VisibilityEvaluator evaluator;
+    private final long timeout;
+    private final Durability durability;
+    private final ExecutorService executor;
+    
+    InMemoryConditionalWriter(InMemoryAccumulo acu, String tableName, ConditionalWriterConfig config) {
+        this.acu = acu;
+        this.tableName = tableName;
+        this.table = acu.tables.get(tableName);
+        this.auths = config.getAuthorizations();
+        this.evaluator = new VisibilityEvaluator(auths);
+        this.timeout = config.getTimeout(TimeUnit.MILLISECONDS);
+        this.durability = config.getDurability();
+        this.executor = acu.newExecutor("InMemoryConditionalWriter " + tableName, config.getMaxWriteThreads());
+    }
+    
+    @Override
+    public Iterator<Result> write(Iterator<ConditionalMutation> mutations) {
+        CompletionService<Result> results = new ExecutorCompletionService<>(executor);
+        int submitted = 0;
+        while (mutations.hasNext()) {
+            ConditionalMutation cm = mutations.next();
+            results.submit(() -> write(cm));
+            submitted++;
+        }
+        int total = submitted;
+        return new Iterator<Result>() {
+            private int returned = 0;
+            
+            @Override
+            public boolean hasNext() {
+                return returned < total;
+            }
+            
+            @Override
+            public Result next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                returned++;
+                try {
+                    return results.take().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        };
+    }
+    
+    @Override
+    public Result write(ConditionalMutation cm) {
+        try {
+            for (Condition c : cm.getConditions()) {
+                if (!evaluator.evaluate(new ColumnVisibility(c.getVisibility().toArray())))
+                    return new Result(Status.INVISIBLE_VISIBILITY, cm, InMemoryInstance.genericAddress);
+            }
+            
+            Status status = acu.addConditionalMutation(tableName, cm, timeout, () -> {
+                for (Condition c : cm.getConditions()) {
+                    if (!check(cm.getRow(), c))
+                        return false;
+                }
+                return true;
+            });
+            if (status == Status.ACCEPTED && durability != Durability.NONE && durability != Durability.LOG)
+                acu.syncWriteAheadLog();
+            return new Result(status, cm, InMemoryInstance.genericAddress);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(e, cm, InMemoryInstance.genericAddress);
+        } catch (IOException | VisibilityParseException | RuntimeException e) {
+            return new Result(e, cm, InMemoryInstance.genericAddress);
+        }
+    }
+    
+    /**
+     * Check a condition against the current contents of the row. The condition holds if its column is absent and no value is expected, or if the first value
+     * seen through the iterators equals the expected value.
+     */
+    private boolean check(byte[] row, Condition c) throws IOException {
+        byte[] cf = c.getFamily().toArray();
+        byte[] cq = c.getQualifier().toArray();
+        InMemoryScanner scanner = new InMemoryScanner(table, auths);
+        scanner.fetchColumn(new Text(cf), new Text(cq));
+        for (IteratorSetting setting : c.getIterators()) {
+            scanner.addScanIterator(setting);
+        }
+        SortedKeyValueIterator<Key,Value> iter = scanner.createFilter(table.createLatestIterator());
+        
+        Long timestamp = c.getTimestamp();
+        Key start = new Key(row, cf, cq, c.getVisibility().toArray(), timestamp == null ? Long.MAX_VALUE : timestamp);
+        Key end = start.followingKey(timestamp == null ? PartialKey.ROW_COLFAM_COLQUAL_COLVIS : PartialKey.ROW_COLFAM_COLQUAL_COLVIS_TIME);
+        iter.seek(new Range(start, true, end, false), Collections.singleton(new ArrayByteSequence(cf)), true);
+        
+        if (c.getValue() == null)
+            return !iter.hasTop();
+        return iter.hasTop() && c.getValue().equals(new ArrayByteSequence(iter.getTopValue().get()));
+    }
+    
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
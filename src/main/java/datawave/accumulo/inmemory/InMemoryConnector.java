@@ -94,7 +94,7 @@ public class InMemoryConnector extends Connector {
     
     @Override
     public MultiTableBatchWriter createMultiTableBatchWriter(long maxMemory, long maxLatency, int maxWriteThreads) {
-        return new InMemoryMultiTableBatchWriter(acu);
+        return new InMemoryMultiTableBatchWriter(acu, maxMemory, maxWriteThreads);
     }
     
     @Override
@@ -107,7 +107,9 @@ public class InMemoryConnector extends Connector {
         InMemoryTable table = acu.tables.get(tableName);
         if (table == null)
             throw new TableNotFoundException(tableName, tableName, "no such table");
-        return new InMemoryScanner(table, authorizations);
+        InMemoryScanner scanner = new InMemoryScanner(table, authorizations);
+        scanner.executor = acu.getScanExecutor();
+        return scanner;
     }
     
     @Override
@@ -142,8 +144,9 @@ public class InMemoryConnector extends Connector {
     
     @Override
     public ConditionalWriter createConditionalWriter(String tableName, ConditionalWriterConfig config) throws TableNotFoundException {
-        // TODO add implementation
-        throw new UnsupportedOperationException();
+        if (acu.tables.get(tableName) == null)
+            throw new TableNotFoundException(tableName, tableName, "no such table");
+        return new InMemoryConditionalWriter(acu, tableName, config);
     }
     
     @Override
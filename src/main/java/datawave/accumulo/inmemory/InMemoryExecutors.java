@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates the executors used for background work by scanners, writers, bulk imports and snapshots. Work runs either on a bounded pool of daemon platform
+ * threads or, on a JDK 21+ runtime, on a new virtual thread per task. The build targets Java 11, so virtual threads are reached through reflection and the
+ * platform pool is used when they are not available.
+ */
+final class InMemoryExecutors {
+    
+    private static final Logger log = LoggerFactory.getLogger(InMemoryExecutors.class);
+    
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+    private static final Method NAME = findMethod(findClass("java.lang.Thread$Builder"), "name", String.class, long.class);
+    private static final Method FACTORY = findMethod(findClass("java.lang.Thread$Builder"), "factory");
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR = findMethod(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+    
+    private InMemoryExecutors() {}
+    
+    /**
+     * Returns true if the runtime supports virtual threads.
+     */
+    static boolean virtualThreadsAvailable() {
+        return Runtime.version().feature() >= 21 && OF_VIRTUAL != null && NAME != null && FACTORY != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+    
+    /**
+     * Create an executor.
+     * 
+     * @param name
+     *            the prefix of the names of the executor's threads
+     * @param threads
+     *            the number of platform threads; ignored for virtual threads, where every task gets its own thread
+     * @param virtual
+     *            true to use virtual threads when the runtime supports them
+     * @return the executor, which the caller must shut down
+     */
+    static ExecutorService newExecutor(String name, int threads, boolean virtual) {
+        if (virtual) {
+            if (virtualThreadsAvailable())
+                return newVirtualThreadPerTaskExecutor(name);
+            log.warn("Virtual threads are not available on Java {}, using {} platform threads for {}", System.getProperty("java.version"), threads, name);
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    private static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 1L);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, (ThreadFactory) FACTORY.invoke(builder));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create virtual thread executor", e);
+        }
+    }
+    
+    private static Class<?> findClass(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+    
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        if (type == null)
+            return null;
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -140,6 +140,80 @@ public class InMemoryInstance implements Instance {
         return conn;
     }
     
+    /**
+     * Write a snapshot of this instance to the given directory.
+     * 
+     * @param dir
+     *            the snapshot directory
+     * @throws IOException
+     *             if the snapshot could not be written
+     * @see InMemoryAccumulo#exportSnapshot(String)
+     */
+    public void exportSnapshot(String dir) throws IOException {
+        acu.exportSnapshot(dir);
+    }
+    
+    /**
+     * Restore a snapshot written by {@link #exportSnapshot(String)} into this instance.
+     * 
+     * @param dir
+     *            the snapshot directory
+     * @throws IOException
+     *             if the snapshot could not be read
+     * @see InMemoryAccumulo#importSnapshot(String)
+     */
+    public void importSnapshot(String dir) throws IOException {
+        acu.importSnapshot(dir);
+    }
+    
+    /**
+     * Replay and then open a write-ahead log in the given local directory.
+     * 
+     * @param dir
+     *            the log directory
+     * @throws IOException
+     *             if the log could not be replayed or opened
+     * @see InMemoryAccumulo#openWriteAheadLog(String)
+     */
+    public void openWriteAheadLog(String dir) throws IOException {
+        acu.openWriteAheadLog(dir);
+    }
+    
+    /**
+     * Write a snapshot of this instance and truncate the write-ahead log.
+     * 
+     * @param dir
+     *            the snapshot directory
+     * @throws IOException
+     *             if the snapshot could not be written
+     * @see InMemoryAccumulo#checkpoint(String)
+     */
+    public void checkpoint(String dir) throws IOException {
+        acu.checkpoint(dir);
+    }
+    
+    /**
+     * Sync and close the write-ahead log, if one is open.
+     * 
+     * @throws IOException
+     *             if the log could not be synced
+     * @see InMemoryAccumulo#closeWriteAheadLog()
+     */
+    public void closeWriteAheadLog() throws IOException {
+        acu.closeWriteAheadLog();
+    }
+    
+    /**
+     * Shut down the background work of this instance and close its write-ahead log.
+     * 
+     * @throws IOException
+     *             if the log could not be synced
+     * @see InMemoryAccumulo#close()
+     */
+    public void close() throws IOException {
+        acu.close();
+    }
+    
     public static class CachedConfiguration {
         private static Configuration configuration = null;
         
@@ -17,23 +17,32 @@
 package datawave.accumulo.inmemory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.function.Consumer;
 
 import org.apache.accumulo.core.classloader.ClassLoaderUtil;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
+import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.client.admin.ActiveCompaction;
 import org.apache.accumulo.core.client.admin.ActiveScan;
 import org.apache.accumulo.core.client.admin.InstanceOperations;
 import org.apache.accumulo.core.data.InstanceId;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.dataImpl.KeyExtent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import datawave.accumulo.inmemory.impl.InMemoryTabletLocator;
+
 class InMemoryInstanceOperations implements InstanceOperations {
     private static final Logger log = LoggerFactory.getLogger(InMemoryInstanceOperations.class);
     InMemoryAccumulo acu;
@@ -81,12 +90,42 @@ class InMemoryInstanceOperations implements InstanceOperations {
     
     @Override
     public List<String> getTabletServers() {
-        return new ArrayList<>();
+        return acu.getTabletServers();
     }
     
+    /**
+     * Returns the scans open against tablets that the simulated tablet server is assigned, as located by {@link InMemoryTabletLocator}. A scan of several
+     * tablets on the server is reported once, for the first of them.
+     */
     @Override
     public List<ActiveScan> getActiveScans(String tserver) throws AccumuloException, AccumuloSecurityException {
-        return new ArrayList<>();
+        List<ActiveScan> scans = new ArrayList<>();
+        List<String> servers = acu.getTabletServers();
+        if (!servers.contains(tserver))
+            return scans;
+        for (Entry<String,InMemoryTable> entry : acu.tables.entrySet()) {
+            InMemoryTable table = entry.getValue();
+            List<InMemoryScanSession> sessions;
+            synchronized (table.activeScans) {
+                sessions = new ArrayList<>(table.activeScans);
+            }
+            if (sessions.isEmpty())
+                continue;
+            InMemoryTabletLocator locator = new InMemoryTabletLocator(InMemoryAccumulo.getTableId(entry.getKey(), table), new TreeSet<>(table.getSplits()),
+                            servers);
+            for (InMemoryScanSession session : sessions) {
+                Map<String,Map<KeyExtent,List<Range>>> binnedRanges = new HashMap<>();
+                try {
+                    locator.binRanges(null, new ArrayList<>(session.ranges), binnedRanges);
+                } catch (TableNotFoundException e) {
+                    throw new AccumuloException(e);
+                }
+                Map<KeyExtent,List<Range>> tablets = binnedRanges.get(tserver);
+                if (tablets != null)
+                    scans.add(new InMemoryActiveScan(entry.getKey(), session, Collections.min(tablets.keySet())));
+            }
+        }
+        return scans;
     }
     
     @Override
@@ -16,41 +16,244 @@
  */
 package datawave.accumulo.inmemory;
 
-import java.util.HashMap;
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.accumulo.core.client.AccumuloClient;
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.BatchWriterConfig;
 import org.apache.accumulo.core.client.MultiTableBatchWriter;
 import org.apache.accumulo.core.client.MutationsRejectedException;
 import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.data.Mutation;
 
+/**
+ * A thread-safe writer to many tables. Mutations are queued per table and applied by up to maxWriteThreads workers, one worker per table at a time so that
+ * the mutations to a table are applied in the order they were added. Queued mutations share a single memory budget; adding a mutation blocks while the
+ * budget is used up.
+ */
 public class InMemoryMultiTableBatchWriter implements MultiTableBatchWriter {
+    private static final int QUEUE_CAPACITY = 10000;
+    private static final int DRAIN_BATCH_SIZE = 1000;
+    private static final AtomicInteger writerCount = new AtomicInteger();
+    
     InMemoryAccumulo acu = null;
-    Map<String,InMemoryBatchWriter> bws = null;
+    Map<String,TableWriter> bws = null;
+    
+    private final long maxMemory;
+    private final ExecutorService workers;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition memoryReleased = lock.newCondition();
+    private final Condition mutationsWritten = lock.newCondition();
+    private long usedMemory = 0;
+    private volatile Throwable failure;
+    private volatile boolean closed = false;
     
     public InMemoryMultiTableBatchWriter(InMemoryAccumulo acu) {
+        this(acu, new BatchWriterConfig());
+    }
+    
+    public InMemoryMultiTableBatchWriter(InMemoryAccumulo acu, BatchWriterConfig config) {
+        this(acu, config.getMaxMemory(), config.getMaxWriteThreads());
+    }
+    
+    public InMemoryMultiTableBatchWriter(InMemoryAccumulo acu, long maxMemory, int maxWriteThreads) {
+        checkArgument(maxMemory > 0, "maxMemory must be positive");
+        checkArgument(maxWriteThreads > 0, "maxWriteThreads must be positive");
         this.acu = acu;
-        bws = new HashMap<>();
+        this.bws = new ConcurrentHashMap<>();
+        this.maxMemory = maxMemory;
+        this.workers = acu.newExecutor("InMemoryMultiTableBatchWriter-" + writerCount.incrementAndGet(), maxWriteThreads);
     }
     
     @Override
     public BatchWriter getBatchWriter(String table) throws AccumuloException, AccumuloSecurityException, TableNotFoundException {
-        if (!bws.containsKey(table)) {
-            bws.put(table, new InMemoryBatchWriter(acu, table));
-        }
-        return bws.get(table);
+        checkOpen();
+        if (acu.tables.get(table) == null)
+            throw new TableNotFoundException(table, table, "no such table");
+        return bws.computeIfAbsent(table, TableWriter::new);
     }
     
+    /**
+     * Waits until every mutation added to any table before this call has been applied, then makes them durable when the instance has a write-ahead log open.
+     */
     @Override
-    public void flush() throws MutationsRejectedException {}
+    public void flush() throws MutationsRejectedException {
+        checkOpen();
+        waitForWriters(new ArrayList<>(bws.values()));
+    }
     
     @Override
-    public void close() throws MutationsRejectedException {}
+    public void close() throws MutationsRejectedException {
+        if (closed)
+            return;
+        try {
+            waitForWriters(new ArrayList<>(bws.values()));
+        } finally {
+            closed = true;
+            workers.shutdown();
+        }
+    }
     
     @Override
     public boolean isClosed() {
-        throw new UnsupportedOperationException();
+        return closed;
+    }
+    
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("Closed");
+    }
+    
+    private void checkFailure() throws MutationsRejectedException {
+        Throwable t = failure;
+        if (t != null)
+            throw new MutationsRejectedException((AccumuloClient) null, Collections.emptyList(), Collections.emptyMap(), Collections.emptyList(), 1, t);
+    }
+    
+    private void waitForWriters(List<TableWriter> writers) throws MutationsRejectedException {
+        long[] targets = new long[writers.size()];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = writers.get(i).added.get();
+        }
+        lock.lock();
+        try {
+            for (int i = 0; i < targets.length; i++) {
+                while (writers.get(i).written.get() < targets[i]) {
+                    mutationsWritten.await();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MutationsRejectedException((AccumuloClient) null, Collections.emptyList(), Collections.emptyMap(), Collections.emptyList(), 1, e);
+        } finally {
+            lock.unlock();
+        }
+        checkFailure();
+        InMemoryBatchWriter.sync(acu);
+    }
+    
+    private void reserveMemory(long size) throws MutationsRejectedException {
+        lock.lock();
+        try {
+            // a mutation larger than the whole budget is let through once nothing else is queued
+            while (usedMemory > 0 && usedMemory + size > maxMemory) {
+                memoryReleased.await();
+            }
+            usedMemory += size;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MutationsRejectedException((AccumuloClient) null, Collections.emptyList(), Collections.emptyMap(), Collections.emptyList(), 1, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void releaseMemory(long size) {
+        lock.lock();
+        try {
+            usedMemory -= size;
+            memoryReleased.signalAll();
+            mutationsWritten.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * The writer for a single table, with its own bounded queue of mutations.
+     */
+    private class TableWriter implements BatchWriter {
+        final String tablename;
+        final BlockingQueue<Mutation> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        final AtomicLong added = new AtomicLong();
+        final AtomicLong written = new AtomicLong();
+        final AtomicBoolean draining = new AtomicBoolean();
+        
+        TableWriter(String tablename) {
+            this.tablename = tablename;
+        }
+        
+        @Override
+        public void addMutation(Mutation m) throws MutationsRejectedException {
+            checkArgument(m != null, "m is null");
+            checkOpen();
+            checkFailure();
+            reserveMemory(m.estimatedMemoryUsed());
+            try {
+                queue.put(m);
+            } catch (InterruptedException e) {
+                releaseMemory(m.estimatedMemoryUsed());
+                Thread.currentThread().interrupt();
+                throw new MutationsRejectedException((AccumuloClient) null, Collections.emptyList(), Collections.emptyMap(), Collections.emptyList(), 1, e);
+            }
+            added.incrementAndGet();
+            if (draining.compareAndSet(false, true))
+                workers.execute(this::drain);
+        }
+        
+        @Override
+        public void addMutations(Iterable<Mutation> iterable) throws MutationsRejectedException {
+            checkArgument(iterable != null, "iterable is null");
+            for (Mutation m : iterable) {
+                addMutation(m);
+            }
+        }
+        
+        private void drain() {
+            List<Mutation> batch = new ArrayList<>(DRAIN_BATCH_SIZE);
+            while (true) {
+                queue.drainTo(batch, DRAIN_BATCH_SIZE);
+                if (batch.isEmpty()) {
+                    draining.set(false);
+                    // a mutation may have been queued after the queue was found empty but before the flag was cleared
+                    if (queue.isEmpty() || !draining.compareAndSet(false, true))
+                        return;
+                    continue;
+                }
+                long size = 0;
+                for (Mutation m : batch) {
+                    size += m.estimatedMemoryUsed();
+                    try {
+                        acu.addMutation(tablename, m);
+                    } catch (RuntimeException e) {
+                        if (failure == null)
+                            failure = e;
+                    }
+                }
+                written.addAndGet(batch.size());
+                releaseMemory(size);
+                batch.clear();
+            }
+        }
+        
+        /**
+         * Waits until every mutation added to this table has been applied. The other tables of the writer are not flushed.
+         */
+        @Override
+        public void flush() throws MutationsRejectedException {
+            checkOpen();
+            waitForWriters(Collections.singletonList(this));
+        }
+        
+        @Override
+        public void close() throws MutationsRejectedException {
+            flush();
+        }
     }
 }
@@ -45,9 +45,9 @@ public class InMemoryNamespace {
     
     public List<String> getTables(InMemoryAccumulo acu) {
         List<String> l = new LinkedList<>();
-        for (String t : acu.tables.keySet()) {
-            if (acu.tables.get(t).getNamespace().equals(this)) {
-                l.add(t);
+        for (Entry<String,InMemoryTable> t : acu.tables.entrySet()) {
+            if (t.getValue().getNamespace().equals(this)) {
+                l.add(t.getKey());
             }
         }
         return l;
@@ -70,7 +70,10 @@ class InMemoryNamespaceOperations extends NamespaceOperationsHelper {
     
     @Override
     public void delete(String namespace) throws AccumuloException, AccumuloSecurityException, NamespaceNotFoundException, NamespaceNotEmptyException {
-        if (acu.namespaces.get(namespace).getTables(acu).size() > 0) {
+        InMemoryNamespace n = acu.namespaces.get(namespace);
+        if (n == null)
+            throw new NamespaceNotFoundException(namespace, namespace, "");
+        if (n.getTables(acu).size() > 0) {
             throw new NamespaceNotEmptyException(null, namespace, null);
         }
         acu.namespaces.remove(namespace);
@@ -84,12 +87,18 @@ class InMemoryNamespaceOperations extends NamespaceOperationsHelper {
         if (exists(newNamespaceName))
             throw new NamespaceExistsException(newNamespaceName, newNamespaceName, "");
         
-        InMemoryNamespace n = acu.namespaces.get(oldNamespaceName);
-        for (String t : n.getTables(acu)) {
-            String tt = newNamespaceName + "." + TableNameUtil.qualify(t).getSecond();
-            acu.tables.put(tt, acu.tables.remove(t));
+        InMemoryNamespace n = acu.namespaces.rename(oldNamespaceName, newNamespaceName);
+        if (n == null) {
+            if (exists(newNamespaceName))
+                throw new NamespaceExistsException(newNamespaceName, newNamespaceName, "");
+            throw new NamespaceNotFoundException(oldNamespaceName, oldNamespaceName, "");
         }
-        acu.namespaces.put(newNamespaceName, acu.namespaces.remove(oldNamespaceName));
+        acu.tables.update(tables -> {
+            for (String t : n.getTables(acu)) {
+                String tt = newNamespaceName + "." + TableNameUtil.qualify(t).getSecond();
+                tables.put(tt, tables.remove(t));
+            }
+        });
     }
     
     @Override
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.util.function.Function;
+
+import org.apache.accumulo.core.client.PluginEnvironment;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.conf.ConfigurationTypeHelper;
+import org.apache.accumulo.core.data.TableId;
+import org.apache.accumulo.core.util.ConfigurationImpl;
+
+/**
+ * The {@link PluginEnvironment} given to iterators scanning a table, backed by the configuration of that table. An instance is shared by all scans of the
+ * table until the table's properties change, so that the {@link Configuration#getDerived(java.util.function.Function) derived} values computed by plugins
+ * are kept between scans.
+ */
+final class InMemoryPluginEnvironment implements PluginEnvironment {
+    
+    private final TableId tableId;
+    private final AccumuloConfiguration conf;
+    private final Configuration configuration;
+    private final Function<String,String> tableNames;
+    
+    InMemoryPluginEnvironment(String tableId, AccumuloConfiguration conf, Function<String,String> tableNames) {
+        this.tableId = tableId == null ? null : TableId.of(tableId);
+        this.conf = conf;
+        this.configuration = new ConfigurationImpl(conf);
+        this.tableNames = tableNames;
+    }
+    
+    /**
+     * Returns the table configuration this environment is backed by.
+     */
+    AccumuloConfiguration getAccumuloConfiguration() {
+        return conf;
+    }
+    
+    @Override
+    public Configuration getConfiguration() {
+        return configuration;
+    }
+    
+    @Override
+    public Configuration getConfiguration(TableId tableId) {
+        if (!tableId.equals(this.tableId))
+            throw new IllegalArgumentException("Only the configuration of table " + this.tableId + " is available, not " + tableId);
+        return configuration;
+    }
+    
+    @Override
+    public String getTableName(TableId tableId) throws TableNotFoundException {
+        String name = tableNames.apply(tableId.canonical());
+        if (name == null)
+            throw new TableNotFoundException(tableId.canonical(), null, null);
+        return name;
+    }
+    
+    @Override
+    public <T> T instantiate(String className, Class<T> base) throws Exception {
+        return ConfigurationTypeHelper.getClassInstance(null, className, base);
+    }
+    
+    @Override
+    public <T> T instantiate(TableId tableId, String className, Class<T> base) throws Exception {
+        return instantiate(className, base);
+    }
+}
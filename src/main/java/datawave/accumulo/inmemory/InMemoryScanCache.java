@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.apache.accumulo.core.client.admin.ScanType;
+import org.apache.accumulo.core.client.sample.SamplerConfiguration;
+import org.apache.accumulo.core.data.Column;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.KeyValue;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.dataImpl.thrift.IterInfo;
+import org.apache.accumulo.core.security.Authorizations;
+
+/**
+ * A cache of complete scan results for a table, so that identical scans repeated against data that has not changed are answered without running the
+ * iterator stack again. Results are keyed by the full scan specification and tagged with the {@link InMemoryTable#getVersion() version} of the table they
+ * were read at; a result is only returned while the table is still at that version. The cache holds at most a fixed number of entries across all results
+ * and evicts the least recently used results first.
+ */
+final class InMemoryScanCache {
+    
+    /**
+     * Everything that determines the results of a scan of a table, other than the table itself.
+     */
+    static final class ScanSpec {
+        private final ScanType type;
+        private final List<Range> ranges;
+        private final Set<Column> columns;
+        private final List<IterInfo> iterators;
+        private final Map<String,Map<String,String>> iteratorOptions;
+        private final Authorizations auths;
+        private final SamplerConfiguration samplerConfig;
+        private final int hashCode;
+        
+        ScanSpec(ScanType type, List<Range> ranges, Set<Column> columns, List<IterInfo> iterators, Map<String,Map<String,String>> iteratorOptions,
+                        Authorizations auths, SamplerConfiguration samplerConfig) {
+            this.type = type;
+            this.ranges = new ArrayList<>(ranges);
+            this.columns = new HashSet<>(columns);
+            this.iterators = new ArrayList<>(iterators);
+            this.iteratorOptions = new HashMap<>();
+            for (Entry<String,Map<String,String>> entry : iteratorOptions.entrySet()) {
+                this.iteratorOptions.put(entry.getKey(), new HashMap<>(entry.getValue()));
+            }
+            this.auths = auths;
+            this.samplerConfig = samplerConfig;
+            this.hashCode = Objects.hash(type, this.ranges, this.columns, this.iterators, this.iteratorOptions, auths, samplerConfig);
+        }
+        
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof ScanSpec))
+                return false;
+            ScanSpec other = (ScanSpec) o;
+            return hashCode == other.hashCode && type == other.type && ranges.equals(other.ranges) && columns.equals(other.columns)
+                            && iterators.equals(other.iterators) && iteratorOptions.equals(other.iteratorOptions) && Objects.equals(auths, other.auths)
+                            && Objects.equals(samplerConfig, other.samplerConfig);
+        }
+    }
+    
+    private static final class Result {
+        final long version;
+        final List<Entry<Key,Value>> entries;
+        
+        Result(long version, List<Entry<Key,Value>> entries) {
+            this.version = version;
+            this.entries = entries;
+        }
+    }
+    
+    private final InMemoryTable table;
+    private final long maxEntries;
+    private final LinkedHashMap<ScanSpec,Result> results = new LinkedHashMap<>(16, 0.75f, true);
+    private long entries = 0;
+    
+    InMemoryScanCache(InMemoryTable table, long maxEntries) {
+        this.table = table;
+        this.maxEntries = maxEntries;
+    }
+    
+    long getMaxEntries() {
+        return maxEntries;
+    }
+    
+    /**
+     * Returns the results of a scan, from the cache if an identical scan has completed since the table was last modified, otherwise from the given scan. In
+     * the latter case the results are added to the cache once the scan has been read to the end.
+     * 
+     * @param spec
+     *            the specification of the scan
+     * @param scan
+     *            runs the scan
+     * @return the results of the scan
+     */
+    Iterator<Entry<Key,Value>> get(ScanSpec spec, Supplier<Iterator<Entry<Key,Value>>> scan) {
+        long version = table.getVersion();
+        Result result;
+        synchronized (this) {
+            result = results.get(spec);
+            if (result != null && result.version != version) {
+                remove(spec);
+                result = null;
+            }
+        }
+        if (result != null)
+            return new CopyingIterator(result.entries.iterator());
+        return new RecordingIterator(spec, version, scan.get());
+    }
+    
+    private synchronized void put(ScanSpec spec, Result result) {
+        if (table.getVersion() != result.version)
+            return;
+        remove(spec);
+        results.put(spec, result);
+        entries += result.entries.size();
+        Iterator<Result> eldest = results.values().iterator();
+        while (entries > maxEntries && eldest.hasNext()) {
+            entries -= eldest.next().entries.size();
+            eldest.remove();
+        }
+    }
+    
+    private void remove(ScanSpec spec) {
+        Result removed = results.remove(spec);
+        if (removed != null)
+            entries -= removed.entries.size();
+    }
+    
+    private static Entry<Key,Value> copy(Entry<Key,Value> entry) {
+        return new KeyValue(new Key(entry.getKey()), new Value(entry.getValue()));
+    }
+    
+    /**
+     * Returns copies of cached entries so that callers modifying what they are given do not change the cache.
+     */
+    private static final class CopyingIterator implements Iterator<Entry<Key,Value>> {
+        private final Iterator<Entry<Key,Value>> source;
+        
+        CopyingIterator(Iterator<Entry<Key,Value>> source) {
+            this.source = source;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return source.hasNext();
+        }
+        
+        @Override
+        public Entry<Key,Value> next() {
+            return copy(source.next());
+        }
+    }
+    
+    /**
+     * Passes through the entries of a scan, keeping a copy of each, and caches them when the scan reaches its end. Scans that are abandoned part way, or that
+     * return more entries than the cache can hold, are not cached.
+     */
+    private final class RecordingIterator implements Iterator<Entry<Key,Value>> {
+        private final ScanSpec spec;
+        private final long version;
+        private final Iterator<Entry<Key,Value>> source;
+        private List<Entry<Key,Value>> recorded = new ArrayList<>();
+        
+        RecordingIterator(ScanSpec spec, long version, Iterator<Entry<Key,Value>> source) {
+            this.spec = spec;
+            this.version = version;
+            this.source = source;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if (source.hasNext())
+                return true;
+            if (recorded != null) {
+                put(spec, new Result(version, recorded));
+                recorded = null;
+            }
+            return false;
+        }
+        
+        @Override
+        public Entry<Key,Value> next() {
+            Entry<Key,Value> entry = source.next();
+            if (recorded != null) {
+                if (recorded.size() < maxEntries)
+                    recorded.add(copy(entry));
+                else
+                    recorded = null;
+            }
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Value;
+
+/**
+ * Publishes the results of a scan to reactive subscribers. Every subscriber gets its own scan, which is started and read on the given executor, never on the
+ * thread calling {@link Flow.Subscription#request(long)}. Results are only read as the subscriber requests them, so a slow subscriber pauses its scan instead
+ * of having results buffered for it.
+ */
+class InMemoryScanPublisher implements Flow.Publisher<Entry<Key,Value>> {
+    
+    // results delivered in one task before yielding the executor thread to other scans
+    private static final int MAX_BATCH = 1024;
+    
+    private final Supplier<Iterator<Entry<Key,Value>>> scan;
+    private final Executor executor;
+    
+    InMemoryScanPublisher(Supplier<Iterator<Entry<Key,Value>>> scan, Executor executor) {
+        this.scan = scan;
+        this.executor = executor;
+    }
+    
+    @Override
+    public void subscribe(Flow.Subscriber<? super Entry<Key,Value>> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber is null");
+        ScanSubscription subscription = new ScanSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+    
+    private class ScanSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Entry<Key,Value>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        // number of times the subscription was signalled while a drain was scheduled or running
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        private volatile Throwable invalidRequest;
+        private Iterator<Entry<Key,Value>> results;
+        private boolean done = false;
+        
+        ScanSubscription(Flow.Subscriber<? super Entry<Key,Value>> subscriber) {
+            this.subscriber = subscriber;
+        }
+        
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("non-positive request: " + n);
+            } else {
+                demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            signal();
+        }
+        
+        @Override
+        public void cancel() {
+            cancelled = true;
+            signal();
+        }
+        
+        private void signal() {
+            if (pending.getAndIncrement() == 0)
+                executor.execute(this);
+        }
+        
+        @Override
+        public void run() {
+            int missed = pending.get();
+            while (true) {
+                if (drain())
+                    return;
+                missed = pending.addAndGet(-missed);
+                if (missed == 0)
+                    return;
+            }
+        }
+        
+        /**
+         * Deliver results while there is demand, up to a batch.
+         * 
+         * @return true if the subscription was rescheduled to continue on another task
+         */
+        private boolean drain() {
+            if (done)
+                return false;
+            if (cancelled) {
+                done = true;
+                results = null;
+                return false;
+            }
+            Throwable invalid = invalidRequest;
+            if (invalid != null) {
+                done = true;
+                results = null;
+                subscriber.onError(invalid);
+                return false;
+            }
+            try {
+                if (results == null)
+                    results = scan.get();
+                int delivered = 0;
+                while (demand.get() > 0 && !cancelled) {
+                    if (!results.hasNext()) {
+                        done = true;
+                        results = null;
+                        subscriber.onComplete();
+                        return false;
+                    }
+                    Entry<Key,Value> next = results.next();
+                    demand.decrementAndGet();
+                    subscriber.onNext(next);
+                    if (++delivered == MAX_BATCH && demand.get() > 0) {
+                        // let other scans run; the pending count keeps this subscription scheduled
+                        executor.execute(this);
+                        return true;
+                    }
+                }
+            } catch (RuntimeException e) {
+                done = true;
+                results = null;
+                subscriber.onError(e);
+            }
+            return false;
+        }
+    }
+}
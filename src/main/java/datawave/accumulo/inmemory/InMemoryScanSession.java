@@ -0,0 +1,331 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import org.apache.accumulo.core.client.TimedOutException;
+import org.apache.accumulo.core.client.admin.ScanState;
+import org.apache.accumulo.core.client.admin.ScanType;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Column;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.dataImpl.thrift.IterInfo;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.security.Authorizations;
+
+/**
+ * Tracks a single open scan against an {@link InMemoryTable}. A session is registered with its table when a scanner creates an iterator and is removed when the
+ * iterator is exhausted, the scan is cancelled, or the owning scanner is closed. Sessions are held weakly so that iterators which are simply abandoned do not
+ * leak.
+ * <p>
+ * The session also enforces the scanner timeout. Each time the client calls into the iterator stack a deadline is set, and the source iterator created by
+ * {@link #wrap(SortedKeyValueIterator)} checks that deadline and the cancellation flag while reading. A scan that is cancelled or that does not produce a result
+ * before the deadline fails with a {@link TimedOutException}.
+ */
+class InMemoryScanSession {
+    
+    private static final AtomicLong scanIdCounter = new AtomicLong(0);
+    private static final int CHECK_INTERVAL = 128;
+    
+    final long scanId;
+    final InMemoryTable table;
+    final ScanType type;
+    final List<Range> ranges;
+    final List<Column> columns;
+    final List<String> ssiList;
+    final Map<String,Map<String,String>> ssio;
+    final Authorizations auths;
+    final long startTime;
+    final long timeout;
+    
+    final AtomicBoolean interruptFlag = new AtomicBoolean(false);
+    private final Set<InMemoryScanSession> owner;
+    
+    private volatile long lastContactTime;
+    private volatile long entriesRead = 0;
+    private volatile long timeSpent = 0;
+    private volatile ScanState state = ScanState.IDLE;
+    private volatile boolean finished = false;
+    private volatile long deadline = Long.MAX_VALUE;
+    
+    InMemoryScanSession(InMemoryTable table, ScanType type, List<Range> ranges, Collection<Column> columns, List<IterInfo> ssiList,
+                    Map<String,Map<String,String>> ssio, Authorizations auths, long timeout, Set<InMemoryScanSession> owner) {
+        this.scanId = scanIdCounter.incrementAndGet();
+        this.table = table;
+        this.type = type;
+        this.ranges = Collections.unmodifiableList(new ArrayList<>(ranges));
+        this.columns = Collections.unmodifiableList(new ArrayList<>(columns));
+        List<String> iters = new ArrayList<>(ssiList.size());
+        for (IterInfo ii : ssiList) {
+            iters.add(ii.getIterName() + "=" + ii.getPriority() + "," + ii.getClassName());
+        }
+        this.ssiList = Collections.unmodifiableList(iters);
+        Map<String,Map<String,String>> opts = new HashMap<>();
+        for (Entry<String,Map<String,String>> entry : ssio.entrySet()) {
+            opts.put(entry.getKey(), Collections.unmodifiableMap(new HashMap<>(entry.getValue())));
+        }
+        this.ssio = Collections.unmodifiableMap(opts);
+        this.auths = auths;
+        this.timeout = timeout;
+        this.owner = owner;
+        this.startTime = System.currentTimeMillis();
+        this.lastContactTime = startTime;
+    }
+    
+    /**
+     * Create a weakly referencing, thread safe set suitable for holding scan sessions.
+     * 
+     * @return an empty session set
+     */
+    static Set<InMemoryScanSession> newSessionSet() {
+        return Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    }
+    
+    void register() {
+        table.activeScans.add(this);
+        owner.add(this);
+    }
+    
+    /**
+     * Remove this session from its table and owning scanner. Called once the client has consumed all results or abandoned the scan.
+     */
+    void finish() {
+        if (!finished) {
+            finished = true;
+            state = ScanState.IDLE;
+            table.activeScans.remove(this);
+            owner.remove(this);
+        }
+    }
+    
+    /**
+     * Request that this scan stop. The source iterator checks the interrupt flag as it reads, so even an iterator stack that is filtering through a large amount
+     * of data without returning anything will stop.
+     */
+    void cancel() {
+        interruptFlag.set(true);
+        finish();
+    }
+    
+    boolean isCancelled() {
+        return interruptFlag.get();
+    }
+    
+    long start() {
+        state = ScanState.RUNNING;
+        long now = System.nanoTime();
+        if (timeout != Long.MAX_VALUE) {
+            deadline = now + TimeUnit.MILLISECONDS.toNanos(timeout);
+        }
+        return now;
+    }
+    
+    void stop(long start) {
+        timeSpent += System.nanoTime() - start;
+        lastContactTime = System.currentTimeMillis();
+        deadline = Long.MAX_VALUE;
+        if (!finished) {
+            state = ScanState.IDLE;
+        }
+    }
+    
+    /**
+     * Verify that this scan has not been cancelled and has not run past its deadline.
+     * 
+     * @throws TimedOutException
+     *             if the scan was cancelled or timed out
+     */
+    void checkAlive() {
+        if (interruptFlag.get()) {
+            finish();
+            throw new TimedOutException("Scan " + scanId + " was cancelled");
+        }
+        long current = deadline;
+        if (current != Long.MAX_VALUE && System.nanoTime() - current > 0) {
+            finish();
+            throw new TimedOutException("Scan " + scanId + " exceeded its timeout of " + timeout + " ms");
+        }
+    }
+    
+    /**
+     * Wrap the source of the iterator stack so that the deadline and cancellation flag are checked while reading.
+     * 
+     * @param source
+     *            the source iterator
+     * @return the wrapped source
+     */
+    SortedKeyValueIterator<Key,Value> wrap(SortedKeyValueIterator<Key,Value> source) {
+        return new SessionSourceIterator(source, this);
+    }
+    
+    long getEntriesRead() {
+        return entriesRead;
+    }
+    
+    long getTimeSpent(TimeUnit unit) {
+        return unit.convert(timeSpent, TimeUnit.NANOSECONDS);
+    }
+    
+    long getLastContactTime() {
+        return lastContactTime;
+    }
+    
+    ScanState getState() {
+        return state;
+    }
+    
+    /**
+     * Wrap the client facing iterator so that entries read and time spent are accounted against this session.
+     * 
+     * @param inner
+     *            the iterator returned to the client
+     * @return the tracking iterator
+     */
+    Iterator<Entry<Key,Value>> track(Iterator<Entry<Key,Value>> inner) {
+        return new Iterator<Entry<Key,Value>>() {
+            @Override
+            public boolean hasNext() {
+                long start = start();
+                try {
+                    checkAlive();
+                    boolean hasNext = inner.hasNext();
+                    if (!hasNext) {
+                        finish();
+                    }
+                    return hasNext;
+                } finally {
+                    stop(start);
+                }
+            }
+            
+            @Override
+            public Entry<Key,Value> next() {
+                long start = start();
+                try {
+                    checkAlive();
+                    Entry<Key,Value> next = inner.next();
+                    entriesRead++;
+                    return next;
+                } finally {
+                    stop(start);
+                }
+            }
+        };
+    }
+    
+    /**
+     * Push the results of an iterator stack to a consumer, accounting entries read against this session. The top key and value of the stack are passed as is,
+     * without copying them or wrapping them in an entry, so they are only valid until the consumer returns. The deadline is renewed after every result, so the
+     * time the consumer takes does not count against the timeout. Must be called between {@link #start()} and {@link #stop(long)}.
+     * 
+     * @param iter
+     *            the seeked iterator stack
+     * @param consumer
+     *            the consumer of the results
+     * @throws IOException
+     *             if the iterator stack fails
+     */
+    void forEach(SortedKeyValueIterator<Key,Value> iter, BiConsumer<? super Key,? super Value> consumer) throws IOException {
+        long read = 0;
+        try {
+            while (iter.hasTop()) {
+                checkAlive();
+                consumer.accept(iter.getTopKey(), iter.getTopValue());
+                if (timeout != Long.MAX_VALUE) {
+                    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+                }
+                if (++read % CHECK_INTERVAL == 0) {
+                    entriesRead += CHECK_INTERVAL;
+                }
+                iter.next();
+            }
+        } finally {
+            entriesRead += read % CHECK_INTERVAL;
+        }
+    }
+    
+    /**
+     * Source iterator which checks the session deadline and cancellation flag on seek and periodically on next.
+     */
+    static class SessionSourceIterator implements SortedKeyValueIterator<Key,Value> {
+        private final SortedKeyValueIterator<Key,Value> source;
+        private final InMemoryScanSession session;
+        private int checkCount = 0;
+        
+        SessionSourceIterator(SortedKeyValueIterator<Key,Value> source, InMemoryScanSession session) {
+            this.source = source;
+            this.session = session;
+        }
+        
+        @Override
+        public void init(SortedKeyValueIterator<Key,Value> source, Map<String,String> options, IteratorEnvironment env) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public boolean hasTop() {
+            return source.hasTop();
+        }
+        
+        @Override
+        public void next() throws IOException {
+            if (++checkCount % CHECK_INTERVAL == 0) {
+                session.checkAlive();
+            }
+            source.next();
+        }
+        
+        @Override
+        public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+            session.checkAlive();
+            source.seek(range, columnFamilies, inclusive);
+        }
+        
+        @Override
+        public Key getTopKey() {
+            return source.getTopKey();
+        }
+        
+        @Override
+        public Value getTopValue() {
+            return source.getTopValue();
+        }
+        
+        @Override
+        public SortedKeyValueIterator<Key,Value> deepCopy(IteratorEnvironment env) {
+            return new SessionSourceIterator(source.deepCopy(env), session);
+        }
+    }
+}
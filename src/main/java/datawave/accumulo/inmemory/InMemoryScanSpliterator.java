@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+
+/**
+ * A spliterator over a scan of an {@link InMemoryTable}, made of ordered pieces of the scanned ranges. Pieces that have not been started can be split off, so
+ * a parallel stream scans them concurrently, each with its own iterator stack.
+ */
+class InMemoryScanSpliterator implements Spliterator<Entry<Key,Value>> {
+    
+    private final List<Range> pieces;
+    private final Function<Range,Iterator<Entry<Key,Value>>> scan;
+    private int next;
+    private final int end;
+    private Iterator<Entry<Key,Value>> current;
+    
+    InMemoryScanSpliterator(List<Range> pieces, Function<Range,Iterator<Entry<Key,Value>>> scan) {
+        this(pieces, scan, 0, pieces.size());
+    }
+    
+    private InMemoryScanSpliterator(List<Range> pieces, Function<Range,Iterator<Entry<Key,Value>>> scan, int next, int end) {
+        this.pieces = pieces;
+        this.scan = scan;
+        this.next = next;
+        this.end = end;
+    }
+    
+    /**
+     * Cut ranges into the pieces of a parallel scan. Each range is cut at the table's split points; if that gives fewer pieces than wanted, each piece is cut
+     * further at rows sampled by the table statistics.
+     * 
+     * @param table
+     *            the table being scanned
+     * @param ranges
+     *            the ranges to scan, in order and not overlapping
+     * @param wanted
+     *            the number of pieces to aim for
+     * @return the pieces, in order
+     */
+    static List<Range> plan(InMemoryTable table, List<Range> ranges, int wanted) {
+        List<Range> pieces = new ArrayList<>();
+        for (Range range : ranges) {
+            pieces.addAll(InMemoryTable.cutRange(range, table.getSplitsWithin(range)));
+        }
+        if (pieces.size() >= wanted)
+            return pieces;
+        InMemoryTableStatistics statistics;
+        try {
+            statistics = table.getStatistics();
+        } catch (IOException e) {
+            // the scan still works, just with fewer pieces
+            return pieces;
+        }
+        int perPiece = (wanted + pieces.size() - 1) / pieces.size();
+        List<Range> finer = new ArrayList<>();
+        for (Range piece : pieces) {
+            finer.addAll(statistics.splitRange(piece, perPiece));
+        }
+        return finer;
+    }
+    
+    @Override
+    public boolean tryAdvance(Consumer<? super Entry<Key,Value>> action) {
+        while (current == null || !current.hasNext()) {
+            if (next >= end) {
+                current = null;
+                return false;
+            }
+            current = scan.apply(pieces.get(next++));
+        }
+        action.accept(current.next());
+        return true;
+    }
+    
+    /**
+     * Split off the first half of the pieces not started yet. Once this spliterator has started a piece the rest cannot be split off without breaking the
+     * encounter order, so nothing is split.
+     */
+    @Override
+    public Spliterator<Entry<Key,Value>> trySplit() {
+        if (current != null || end - next < 2)
+            return null;
+        int mid = (next + end) >>> 1;
+        Spliterator<Entry<Key,Value>> prefix = new InMemoryScanSpliterator(pieces, scan, next, mid);
+        next = mid;
+        return prefix;
+    }
+    
+    @Override
+    public long estimateSize() {
+        return next >= end && current == null ? 0 : Long.MAX_VALUE;
+    }
+    
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+}
@@ -17,17 +17,25 @@
 package datawave.accumulo.inmemory;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.admin.ScanType;
 import org.apache.accumulo.core.clientImpl.ScannerOptions;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
 import org.apache.accumulo.core.iterators.Filter;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
-import org.apache.accumulo.core.iteratorsImpl.system.SortedMapIterator;
 import org.apache.accumulo.core.security.Authorizations;
 
 public class InMemoryScanner extends InMemoryScannerBase implements Scanner, ScannerRebuilder, Cloneable {
@@ -41,6 +49,7 @@ public class InMemoryScanner extends InMemoryScannerBase implements Scanner, Sca
         clone.batchSize = getBatchSize();
         clone.range = getRange();
         ScannerOptions.setOptions(clone, this);
+        clone.executor = executor;
         clone.retryTimeout = retryTimeout;
         return clone;
     }
@@ -91,15 +100,63 @@ public class InMemoryScanner extends InMemoryScannerBase implements Scanner, Sca
     
     @Override
     public Iterator<Entry<Key,Value>> iterator() {
-        SortedKeyValueIterator<Key,Value> i = new SortedMapIterator(table.table);
+        return cached(ScanType.SINGLE, Collections.singletonList(range), () -> scanRange(ScanType.SINGLE, range));
+    }
+    
+    @Override
+    List<Range> getScanRanges() {
+        return Collections.singletonList(range);
+    }
+    
+    /**
+     * Returns a spliterator over the scan that can be split along the table's split points, for use with {@link #parallelStream()}.
+     */
+    @Override
+    public Spliterator<Entry<Key,Value>> spliterator() {
+        return createSpliterator(ScanType.SINGLE, Collections.singletonList(range));
+    }
+    
+    /**
+     * Returns a parallel stream over the results of the scan. The results of each piece of the range are in order, but a parallel stream does not preserve
+     * order unless asked to, for example with {@link Stream#forEachOrdered}.
+     */
+    public Stream<Entry<Key,Value>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+    
+    /**
+     * Pushes every result of the scan to the consumer without allocating an entry per result. The key and value passed to the consumer belong to the scan and
+     * are only valid until the consumer returns; copy them to keep them.
+     */
+    @Override
+    public void forEach(BiConsumer<? super Key,? super Value> keyValueConsumer) {
+        InMemoryScanSession session = startSession(ScanType.SINGLE, Collections.singletonList(range));
+        long start = session.start();
         try {
-            i = new RangeFilter(createFilter(i), range);
-            i.seek(range, createColumnBSS(fetchedColumns), !fetchedColumns.isEmpty());
-            return new IteratorAdapter(i);
+            session.forEach(createScanIterator(session, range), keyValueConsumer);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            session.stop(start);
+            session.finish();
         }
-        
+    }
+    
+    
+    /**
+     * Returns a publisher of the results of this scan for reactive consumers, reading on the scan executor of the instance.
+     */
+    public Flow.Publisher<Entry<Key,Value>> publisher() {
+        return publisher(executor);
+    }
+    
+    /**
+     * Returns a publisher of the results of this scan for reactive consumers. Each subscriber gets its own scan with the settings this scanner has now, read on
+     * the executor only as fast as the subscriber requests results.
+     */
+    public Flow.Publisher<Entry<Key,Value>> publisher(Executor executor) {
+        InMemoryScanner scanner = clone();
+        return new InMemoryScanPublisher(scanner::iterator, executor);
     }
     
     @Override
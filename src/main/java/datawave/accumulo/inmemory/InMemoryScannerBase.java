@@ -19,12 +19,27 @@ package datawave.accumulo.inmemory;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import org.apache.accumulo.core.client.PluginEnvironment;
 import org.apache.accumulo.core.client.SampleNotPresentException;
+import org.apache.accumulo.core.client.admin.ScanType;
 import org.apache.accumulo.core.client.sample.SamplerConfiguration;
 import org.apache.accumulo.core.clientImpl.ScannerOptions;
 import org.apache.accumulo.core.conf.AccumuloConfiguration;
@@ -33,7 +48,9 @@ import org.apache.accumulo.core.data.ArrayByteSequence;
 import org.apache.accumulo.core.data.ByteSequence;
 import org.apache.accumulo.core.data.Column;
 import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.dataImpl.thrift.IterInfo;
 import org.apache.accumulo.core.iterators.IteratorEnvironment;
 import org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
 import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
@@ -45,13 +62,20 @@ import org.apache.accumulo.core.iteratorsImpl.system.DeletingIterator;
 import org.apache.accumulo.core.iteratorsImpl.system.MultiIterator;
 import org.apache.accumulo.core.iteratorsImpl.system.VisibilityFilter;
 import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
 
-public class InMemoryScannerBase extends ScannerOptions {
+public abstract class InMemoryScannerBase extends ScannerOptions {
+    
+    // pieces to cut a parallel scan into for each thread of the common pool, so that uneven pieces still balance
+    private static final int SPLITS_PER_THREAD = 4;
     
     protected final InMemoryTable table;
     protected final Authorizations auths;
     
     private ArrayList<SortedKeyValueIterator<Key,Value>> injectedIterators = new ArrayList<>();
+    private final Set<InMemoryScanSession> sessions = InMemoryScanSession.newSessionSet();
+    // runs asynchronous scans, see InMemoryAccumulo#getScanExecutor
+    Executor executor = ForkJoinPool.commonPool();
     
     InMemoryScannerBase(InMemoryTable mockTable, Authorizations authorizations) {
         this.table = mockTable;
@@ -68,10 +92,20 @@ public class InMemoryScannerBase extends ScannerOptions {
     
     static class InMemoryIteratorEnvironment implements IteratorEnvironment {
         
+        private static final InMemoryPluginEnvironment DEFAULT_PLUGIN_ENV = new InMemoryPluginEnvironment(null, DefaultConfiguration.getInstance(), tableId -> null);
+        
         private final Authorizations auths;
+        private final InMemoryTable table;
+        private final SamplerConfiguration samplerConfig;
         
         InMemoryIteratorEnvironment(Authorizations auths) {
+            this(auths, null, null);
+        }
+        
+        InMemoryIteratorEnvironment(Authorizations auths, InMemoryTable table, SamplerConfiguration samplerConfig) {
             this.auths = auths;
+            this.table = table;
+            this.samplerConfig = samplerConfig;
         }
         
         @Override
@@ -81,12 +115,12 @@ public class InMemoryScannerBase extends ScannerOptions {
         
         @Override
         public AccumuloConfiguration getConfig() {
-            return DefaultConfiguration.getInstance();
+            return table == null ? DefaultConfiguration.getInstance() : table.getConfiguration();
         }
         
         @Override
         public PluginEnvironment getPluginEnv() {
-            return MockPluginEnvironment.newInstance(getConfig());
+            return table == null ? DEFAULT_PLUGIN_ENV : table.getPluginEnvironment();
         }
         
         @Override
@@ -125,17 +159,20 @@ public class InMemoryScannerBase extends ScannerOptions {
         
         @Override
         public boolean isSamplingEnabled() {
-            return false;
+            return samplerConfig != null;
         }
         
         @Override
         public SamplerConfiguration getSamplerConfiguration() {
-            return null;
+            return samplerConfig;
         }
         
         @Override
         public IteratorEnvironment cloneWithSamplingEnabled() {
-            throw new SampleNotPresentException();
+            SamplerConfiguration tableConfig = table == null ? null : table.getSamplerConfiguration();
+            if (tableConfig == null)
+                throw new SampleNotPresentException();
+            return new InMemoryIteratorEnvironment(auths, table, tableConfig);
         }
     }
     
@@ -144,21 +181,183 @@ public class InMemoryScannerBase extends ScannerOptions {
         inner = new ColumnFamilySkippingIterator(DeletingIterator.wrap(inner, false, DeletingIterator.Behavior.PROCESS));
         SortedKeyValueIterator<Key,Value> cqf = ColumnQualifierFilter.wrap(inner, new HashSet<>(fetchedColumns));
         SortedKeyValueIterator<Key,Value> wrappedFilter = VisibilityFilter.wrap(cqf, auths, defaultLabels);
-        AccumuloConfiguration conf = new InMemoryConfiguration(table.settings);
-        InMemoryIteratorEnvironment iterEnv = new InMemoryIteratorEnvironment(auths);
+        InMemoryTableConfiguration conf = table.getConfiguration();
+        InMemoryIteratorEnvironment iterEnv = new InMemoryIteratorEnvironment(auths, table, getSamplerConfiguration());
         SortedKeyValueIterator<Key,Value> injectedIterators = applyInjectedIterators(wrappedFilter);
-        IteratorBuilder.IteratorBuilderEnv iterLoad = IteratorConfigUtil.loadIterConf(IteratorScope.scan, serverSideIteratorList, serverSideIteratorOptions,
-                        conf);
-        SortedKeyValueIterator<Key,Value> result = iterEnv
-                        .getTopLevelIterator(IteratorConfigUtil.loadIterators(injectedIterators, iterLoad.env(iterEnv).build()));
+        Map<String,Map<String,String>> iterOptions = new HashMap<>();
+        List<IterInfo> iters = conf.mergeScanIterators(serverSideIteratorList, serverSideIteratorOptions, iterOptions);
+        IteratorBuilder iterLoad = IteratorBuilder.builder(iters).opts(iterOptions).env(iterEnv).build();
+        SortedKeyValueIterator<Key,Value> result = iterEnv.getTopLevelIterator(IteratorConfigUtil.loadIterators(injectedIterators, iterLoad));
         return result;
     }
     
+    /**
+     * Register a new scan against the table so that it is visible through {@link InMemoryInstanceOperations#getActiveScans(String)}.
+     * 
+     * @param type
+     *            the type of scan
+     * @param ranges
+     *            the ranges being scanned
+     * @return the registered session
+     */
+    protected InMemoryScanSession startSession(ScanType type, List<Range> ranges) {
+        InMemoryScanSession session = new InMemoryScanSession(table, type, ranges, fetchedColumns, serverSideIteratorList, serverSideIteratorOptions, auths,
+                        getTimeout(TimeUnit.MILLISECONDS), sessions);
+        session.register();
+        return session;
+    }
+    
+    /**
+     * Create the base iterator over the table data, or over the table's sample if a sampler configuration is set, for the given session. The source checks
+     * the session deadline and cancellation flag so that timed out or cancelled scans stop reading.
+     * 
+     * @param session
+     *            the scan session
+     * @return the source iterator
+     */
+    protected SortedKeyValueIterator<Key,Value> createSource(InMemoryScanSession session) {
+        SamplerConfiguration samplerConfig = getSamplerConfiguration();
+        return session.wrap(samplerConfig == null ? table.createIterator() : table.createSampleIterator(samplerConfig));
+    }
+    
+    /**
+     * Build the iterator stack for a session and seek it to a range.
+     */
+    SortedKeyValueIterator<Key,Value> createScanIterator(InMemoryScanSession session, Range range) throws IOException {
+        SortedKeyValueIterator<Key,Value> i = new InMemoryScanner.RangeFilter(createFilter(createSource(session)), range);
+        i.seek(range, createColumnBSS(fetchedColumns), !fetchedColumns.isEmpty());
+        return i;
+    }
+    
+    /**
+     * Start a session scanning a single range and return its results.
+     */
+    Iterator<Entry<Key,Value>> scanRange(ScanType type, Range range) {
+        InMemoryScanSession session = startSession(type, Collections.singletonList(range));
+        long start = session.start();
+        try {
+            return session.track(new IteratorAdapter(createScanIterator(session, range)));
+        } catch (IOException e) {
+            session.finish();
+            throw new RuntimeException(e);
+        } finally {
+            session.stop(start);
+        }
+    }
+    
+    /**
+     * Returns the results of a scan, from the table's {@link InMemoryScanCache} when it is enabled and an identical scan has completed since the table was
+     * last changed. Scans with injected iterators are never cached since their behavior is not part of the scan specification.
+     * 
+     * @param type
+     *            the type of scan
+     * @param ranges
+     *            the ranges being scanned
+     * @param scan
+     *            runs the scan
+     * @return the results of the scan
+     */
+    protected Iterator<Entry<Key,Value>> cached(ScanType type, List<Range> ranges, Supplier<Iterator<Entry<Key,Value>>> scan) {
+        InMemoryScanCache cache = table.getScanCache();
+        if (cache == null || !injectedIterators.isEmpty())
+            return scan.get();
+        InMemoryScanCache.ScanSpec spec = new InMemoryScanCache.ScanSpec(type, ranges, fetchedColumns, serverSideIteratorList, serverSideIteratorOptions, auths,
+                        getSamplerConfiguration());
+        return cache.get(spec, scan);
+    }
+    
+    /**
+     * Create a spliterator over the results of scanning the ranges. The ranges are cut at the table's split points, and further at sampled rows when that
+     * gives fewer pieces than the common fork-join pool can work on, so that a parallel stream scans the pieces concurrently. Each piece is scanned with its
+     * own iterator stack and session. Injected iterators are single instances shared by every iterator stack, so with any injected the ranges are scanned one
+     * after another and the spliterator does not split.
+     * 
+     * @param type
+     *            the type of scan to report for each piece
+     * @param ranges
+     *            the ranges to scan, in order and not overlapping
+     * @return the spliterator
+     */
+    protected Spliterator<Entry<Key,Value>> createSpliterator(ScanType type, List<Range> ranges) {
+        if (!injectedIterators.isEmpty()) {
+            Iterator<Entry<Key,Value>> entries = Spliterators.iterator(new InMemoryScanSpliterator(ranges, range -> scanRange(type, range)));
+            return Spliterators.spliteratorUnknownSize(entries, Spliterator.ORDERED | Spliterator.NONNULL);
+        }
+        List<Range> pieces = InMemoryScanSpliterator.plan(table, ranges, SPLITS_PER_THREAD * ForkJoinPool.getCommonPoolParallelism());
+        return new InMemoryScanSpliterator(pieces, range -> scanRange(type, range));
+    }
+    
+    /**
+     * Aggregate the results of the scan instead of returning them. The aggregates are computed inside the scan, after the visibility filter and the iterator
+     * stack, with the scanned ranges cut into pieces the same way as for {@link #createSpliterator(ScanType, List)} and the pieces aggregated in parallel on
+     * the scan executor. With injected iterators, which every iterator stack shares, the ranges are aggregated one after another on the calling thread.
+     * 
+     * @param groupBy
+     *            how to group the results
+     * @return the aggregate of each group, sorted by group
+     */
+    public SortedMap<Text,InMemoryAggregation.Aggregate> aggregate(InMemoryAggregation.GroupBy groupBy) {
+        if (!injectedIterators.isEmpty()) {
+            InMemoryAggregation.Aggregator result = new InMemoryAggregation.Aggregator(groupBy);
+            for (Range range : getScanRanges()) {
+                result.merge(aggregate(groupBy, range));
+            }
+            return result.getAggregates();
+        }
+        List<Range> pieces = InMemoryScanSpliterator.plan(table, getScanRanges(), SPLITS_PER_THREAD * ForkJoinPool.getCommonPoolParallelism());
+        List<CompletableFuture<InMemoryAggregation.Aggregator>> partials = new ArrayList<>();
+        for (Range piece : pieces) {
+            partials.add(CompletableFuture.supplyAsync(() -> aggregate(groupBy, piece), executor));
+        }
+        InMemoryAggregation.Aggregator result = new InMemoryAggregation.Aggregator(groupBy);
+        try {
+            for (CompletableFuture<InMemoryAggregation.Aggregator> partial : partials) {
+                result.merge(partial.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+        return result.getAggregates();
+    }
+    
+    private InMemoryAggregation.Aggregator aggregate(InMemoryAggregation.GroupBy groupBy, Range piece) {
+        InMemoryAggregation.Aggregator aggregator = new InMemoryAggregation.Aggregator(groupBy);
+        InMemoryScanSession session = startSession(ScanType.BATCH, Collections.singletonList(piece));
+        long start = session.start();
+        try {
+            session.forEach(createScanIterator(session, piece), aggregator::add);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            session.stop(start);
+            session.finish();
+        }
+        return aggregator;
+    }
+    
+    /**
+     * Returns the ranges this scanner scans, in order and not overlapping.
+     */
+    abstract List<Range> getScanRanges();
+    
     @Override
     public Iterator<Entry<Key,Value>> iterator() {
         throw new UnsupportedOperationException();
     }
     
+    @Override
+    public void close() {
+        List<InMemoryScanSession> open;
+        synchronized (sessions) {
+            open = new ArrayList<>(sessions);
+        }
+        for (InMemoryScanSession session : open) {
+            session.cancel();
+        }
+    }
+    
     @Override
     public Authorizations getAuthorizations() {
         return auths;
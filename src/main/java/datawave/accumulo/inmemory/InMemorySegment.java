@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+
+import datawave.accumulo.inmemory.InMemoryTable.InMemoryMemKey;
+
+/**
+ * An immutable, sorted run of table entries stored in a local file and accessed through {@link FileChannel#map}. The OS page cache manages which parts of the
+ * file are resident, and opening a segment requires no deserialization.
+ * <p>
+ * The file holds a record for each entry, followed by an index of record offsets and a fixed size trailer. Each record holds the row, column family, column
+ * qualifier and column visibility (each as a length and bytes), the timestamp, the delete flag, the mutation count and the value. Because offsets are ints a
+ * single segment is limited in size; {@link #write(Path, String, SortedKeyValueIterator, long)} starts a new file whenever a segment reaches its size limit.
+ */
+class InMemorySegment {
+    
+    static final String SUFFIX = ".seg";
+    
+    private static final int MAGIC = 0x494d5347;
+    private static final int VERSION = 1;
+    private static final int TRAILER_SIZE = 20;
+    private static final long MAX_DATA_SIZE = 1L << 30;
+    
+    final Path file;
+    final int entries;
+    final int maxCount;
+    private final MappedByteBuffer buffer;
+    private final int indexOffset;
+    
+    private InMemorySegment(Path file, MappedByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        int trailer = buffer.limit() - TRAILER_SIZE;
+        if (trailer < 0 || buffer.getInt(trailer + 12) != MAGIC || buffer.getInt(trailer + 16) != VERSION)
+            throw new IOException("Not a valid segment file: " + file);
+        this.entries = buffer.getInt(trailer);
+        this.indexOffset = buffer.getInt(trailer + 4);
+        this.maxCount = buffer.getInt(trailer + 8);
+    }
+    
+    /**
+     * Map an existing segment file.
+     * 
+     * @param file
+     *            the segment file
+     * @return the segment
+     * @throws IOException
+     *             if the file could not be mapped or is not a segment
+     */
+    static InMemorySegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new InMemorySegment(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+    
+    /**
+     * Write all entries of the source to one or more segment files in the given directory and map them. The source must already be seeked.
+     * 
+     * @param dir
+     *            the directory to write to
+     * @param prefix
+     *            the file name prefix; files are named with the prefix, a sequence number and {@value #SUFFIX}
+     * @param source
+     *            the sorted entries to write
+     * @param firstSeq
+     *            the sequence number of the first file
+     * @return the written segments, in order
+     * @throws IOException
+     *             if the segments could not be written
+     */
+    static List<InMemorySegment> write(Path dir, String prefix, SortedKeyValueIterator<Key,Value> source, long firstSeq) throws IOException {
+        List<InMemorySegment> segments = new ArrayList<>();
+        long seq = firstSeq;
+        while (source.hasTop()) {
+            Path file = dir.resolve(String.format("%s%08d%s", prefix, seq++, SUFFIX));
+            Path tmp = dir.resolve(file.getFileName() + ".tmp");
+            int[] offsets = new int[1024];
+            int count = 0;
+            int maxCount = 0;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                while (source.hasTop() && out.size() < MAX_DATA_SIZE) {
+                    if (count == offsets.length)
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                    offsets[count++] = out.size();
+                    Key key = source.getTopKey();
+                    if (key instanceof InMemoryMemKey)
+                        maxCount = Math.max(maxCount, ((InMemoryMemKey) key).getCount());
+                    writeEntry(out, key, source.getTopValue());
+                    source.next();
+                }
+                int indexOffset = out.size();
+                for (int i = 0; i < count; i++) {
+                    out.writeInt(offsets[i]);
+                }
+                out.writeInt(count);
+                out.writeInt(indexOffset);
+                out.writeInt(maxCount);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            segments.add(open(file));
+        }
+        return segments;
+    }
+    
+    private static void writeEntry(DataOutputStream out, Key key, Value value) throws IOException {
+        writeBytes(out, key.getRowData());
+        writeBytes(out, key.getColumnFamilyData());
+        writeBytes(out, key.getColumnQualifierData());
+        writeBytes(out, key.getColumnVisibilityData());
+        out.writeLong(key.getTimestamp());
+        out.writeByte(key.isDeleted() ? 1 : 0);
+        out.writeInt(key instanceof InMemoryMemKey ? ((InMemoryMemKey) key).getCount() : 0);
+        byte[] bytes = value.get();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static void writeBytes(DataOutputStream out, ByteSequence bytes) throws IOException {
+        out.writeInt(bytes.length());
+        if (bytes.isBackedByArray()) {
+            out.write(bytes.getBackingArray(), bytes.offset(), bytes.length());
+        } else {
+            out.write(bytes.toArray());
+        }
+    }
+    
+    private int offset(int index) {
+        return buffer.getInt(indexOffset + index * 4);
+    }
+    
+    /**
+     * @return an iterator over the entries of this segment
+     */
+    SortedKeyValueIterator<Key,Value> iterator() {
+        return new SegmentIterator(this);
+    }
+    
+    /**
+     * Iterator over a segment. Each iterator reads through its own view of the mapped buffer so that iterators may be used from different threads.
+     */
+    static class SegmentIterator implements SortedKeyValueIterator<Key,Value> {
+        private final InMemorySegment segment;
+        private final ByteBuffer buffer;
+        private Range range;
+        private int index;
+        private Key topKey;
+        private Value topValue;
+        
+        SegmentIterator(InMemorySegment segment) {
+            this.segment = segment;
+            this.buffer = segment.buffer.duplicate();
+        }
+        
+        @Override
+        public void init(SortedKeyValueIterator<Key,Value> source, Map<String,String> options, IteratorEnvironment env) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public boolean hasTop() {
+            return topKey != null;
+        }
+        
+        @Override
+        public void next() throws IOException {
+            index++;
+            readTop();
+        }
+        
+        @Override
+        public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+            this.range = range;
+            int low = 0;
+            int high = segment.entries;
+            if (range.getStartKey() != null) {
+                Key start = range.getStartKey();
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (readKey(segment.offset(mid)).compareTo(start) < 0)
+                        low = mid + 1;
+                    else
+                        high = mid;
+                }
+                if (!range.isStartKeyInclusive()) {
+                    while (low < segment.entries && readKey(segment.offset(low)).compareTo(start) == 0) {
+                        low++;
+                    }
+                }
+            }
+            index = low;
+            readTop();
+        }
+        
+        private void readTop() {
+            if (index >= segment.entries) {
+                topKey = null;
+                topValue = null;
+                return;
+            }
+            Key key = readKey(segment.offset(index));
+            if (range.afterEndKey(key)) {
+                topKey = null;
+                topValue = null;
+                return;
+            }
+            topKey = key;
+            byte[] value = new byte[buffer.getInt()];
+            buffer.get(value);
+            topValue = new Value(value, false);
+        }
+        
+        private Key readKey(int offset) {
+            buffer.position(offset);
+            byte[] row = readBytes();
+            byte[] cf = readBytes();
+            byte[] cq = readBytes();
+            byte[] cv = readBytes();
+            long timestamp = buffer.getLong();
+            boolean deleted = buffer.get() != 0;
+            int count = buffer.getInt();
+            return new InMemoryMemKey(new Key(row, cf, cq, cv, timestamp, deleted, false), count);
+        }
+        
+        private byte[] readBytes() {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            return bytes;
+        }
+        
+        @Override
+        public Key getTopKey() {
+            return topKey;
+        }
+        
+        @Override
+        public Value getTopValue() {
+            return topValue;
+        }
+        
+        @Override
+        public SortedKeyValueIterator<Key,Value> deepCopy(IteratorEnvironment env) {
+            return new SegmentIterator(segment);
+        }
+    }
+}
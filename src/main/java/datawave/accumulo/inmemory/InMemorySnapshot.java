@@ -0,0 +1,491 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.accumulo.core.client.admin.TimeType;
+import org.apache.accumulo.core.client.security.tokens.AuthenticationToken;
+import org.apache.accumulo.core.client.security.tokens.AuthenticationToken.AuthenticationTokenSerializer;
+import org.apache.accumulo.core.clientImpl.Namespace;
+import org.apache.accumulo.core.conf.DefaultConfiguration;
+import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.crypto.CryptoFactoryLoader;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.file.FileOperations;
+import org.apache.accumulo.core.file.FileSKVWriter;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.core.security.NamespacePermission;
+import org.apache.accumulo.core.security.SystemPermission;
+import org.apache.accumulo.core.security.TablePermission;
+import org.apache.accumulo.core.spi.crypto.CryptoEnvironment;
+import org.apache.accumulo.core.spi.crypto.CryptoService;
+import org.apache.accumulo.core.util.tables.TableNameUtil;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Exports tables, or an entire {@link InMemoryAccumulo}, to a directory of sorted RFiles plus a properties manifest on the instance {@link FileSystem}, and
+ * imports them again. Each tablet of a table is written to its own file so that both export and import run in parallel.
+ * <p>
+ * A table export directory contains {@value #TABLE_MANIFEST}, holding the time type, mutation count, splits, properties, locality groups and permissions, and one
+ * RFile per tablet. A snapshot directory contains {@value #SNAPSHOT_MANIFEST}, holding the system properties, namespaces and users, and a table export directory
+ * for every table outside of the accumulo namespace.
+ */
+final class InMemorySnapshot {
+    
+    static final String TABLE_MANIFEST = "table.properties";
+    static final String SNAPSHOT_MANIFEST = "snapshot.properties";
+    static final String TABLES_DIR = "tables";
+    
+    private static final String TIME_TYPE = "time.type";
+    private static final String MUTATION_COUNT = "mutation.count";
+    private static final String SPLIT = "split.";
+    private static final String PROPERTY = "property.";
+    private static final String LOCALITY_GROUP = "locality.group.";
+    private static final String PERMISSION = "permission.";
+    private static final String FILE = "file.";
+    private static final String SYSTEM_PROPERTY = "system.property.";
+    private static final String NAMESPACE = "namespace.";
+    private static final String USER = "user.";
+    private static final String TABLE = "table.";
+    
+    private InMemorySnapshot() {
+        // Utility only, do not instantiate
+    }
+    
+    /**
+     * Export a single table to the given directory.
+     * 
+     * @param acu
+     *            the instance owning the table
+     * @param table
+     *            the table to export
+     * @param dir
+     *            the export directory
+     * @throws IOException
+     *             if the export could not be written
+     */
+    static void exportTable(InMemoryAccumulo acu, InMemoryTable table, Path dir) throws IOException {
+        exportTables(acu, acu.getFileSystem(), Collections.singletonMap(dir, table));
+    }
+    
+    /**
+     * Import a table previously written by {@link #exportTable(InMemoryAccumulo, InMemoryTable, Path)}. The configuration is read from the first directory and
+     * the data files of every directory are loaded in parallel.
+     * 
+     * @param acu
+     *            the instance to import into
+     * @param username
+     *            the user creating the table
+     * @param tableName
+     *            the name of the new table
+     * @param dirs
+     *            the export directories
+     * @throws IOException
+     *             if the export could not be read
+     */
+    static void importTable(InMemoryAccumulo acu, String username, String tableName, Set<String> dirs) throws IOException {
+        FileSystem fs = acu.getFileSystem();
+        List<Path> paths = new ArrayList<>();
+        for (String dir : dirs) {
+            paths.add(new Path(dir));
+        }
+        Properties manifest = readManifest(fs, new Path(paths.get(0), TABLE_MANIFEST));
+        InMemoryTable table = createTable(acu, username, tableName, null, manifest);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Path path : paths) {
+            Properties files = path.equals(paths.get(0)) ? manifest : readManifest(fs, new Path(path, TABLE_MANIFEST));
+            tasks.addAll(loadTasks(fs, table, path, files));
+        }
+        runAll(acu, tasks);
+    }
+    
+    /**
+     * Export the system properties, namespaces, users and every table outside of the accumulo namespace to the given directory.
+     * 
+     * @param acu
+     *            the instance to export
+     * @param dir
+     *            the snapshot directory
+     * @throws IOException
+     *             if the snapshot could not be written
+     */
+    static void exportSnapshot(InMemoryAccumulo acu, Path dir) throws IOException {
+        FileSystem fs = acu.getFileSystem();
+        Properties manifest = new Properties();
+        for (Entry<String,String> entry : acu.systemProperties.entrySet()) {
+            manifest.setProperty(SYSTEM_PROPERTY + entry.getKey(), entry.getValue());
+        }
+        
+        int i = 0;
+        for (Entry<String,InMemoryNamespace> entry : acu.namespaces.entrySet()) {
+            String prefix = NAMESPACE + i++ + ".";
+            manifest.setProperty(prefix + "name", entry.getKey());
+            for (Entry<String,String> setting : entry.getValue().settings.entrySet()) {
+                manifest.setProperty(prefix + PROPERTY + setting.getKey(), setting.getValue());
+            }
+            for (Entry<String,EnumSet<NamespacePermission>> permissions : entry.getValue().userPermissions.entrySet()) {
+                manifest.setProperty(prefix + PERMISSION + permissions.getKey(), join(permissions.getValue()));
+            }
+        }
+        
+        i = 0;
+        for (InMemoryUser user : acu.users.values()) {
+            String prefix = USER + i++ + ".";
+            manifest.setProperty(prefix + "name", user.name);
+            manifest.setProperty(prefix + "token.class", user.token.getClass().getName());
+            manifest.setProperty(prefix + "token", encode(AuthenticationTokenSerializer.serialize(user.token)));
+            manifest.setProperty(prefix + "authorizations", user.authorizations.serialize());
+            manifest.setProperty(prefix + PERMISSION.substring(0, PERMISSION.length() - 1), join(user.permissions));
+        }
+        
+        Map<Path,InMemoryTable> tables = new LinkedHashMap<>();
+        i = 0;
+        for (Entry<String,InMemoryTable> entry : acu.tables.entrySet()) {
+            if (Namespace.ACCUMULO.name().equals(TableNameUtil.qualify(entry.getKey()).getFirst()))
+                continue;
+            String tableDir = TABLES_DIR + "/" + i;
+            manifest.setProperty(TABLE + i + ".name", entry.getKey());
+            manifest.setProperty(TABLE + i + ".id", entry.getValue().getTableId());
+            manifest.setProperty(TABLE + i + ".dir", tableDir);
+            tables.put(new Path(dir, tableDir), entry.getValue());
+            i++;
+        }
+        
+        exportTables(acu, fs, tables);
+        writeManifest(fs, new Path(dir, SNAPSHOT_MANIFEST), manifest);
+    }
+    
+    /**
+     * Restore a snapshot written by {@link #exportSnapshot(InMemoryAccumulo, Path)}. Namespaces and users are created or replaced, and every table is recreated
+     * and loaded in parallel. None of the tables in the snapshot may already exist.
+     * 
+     * @param acu
+     *            the instance to restore into
+     * @param dir
+     *            the snapshot directory
+     * @throws IOException
+     *             if the snapshot could not be read, or a table in the snapshot already exists
+     */
+    static void importSnapshot(InMemoryAccumulo acu, Path dir) throws IOException {
+        FileSystem fs = acu.getFileSystem();
+        Properties manifest = readManifest(fs, new Path(dir, SNAPSHOT_MANIFEST));
+        
+        Set<String> tableIds = new HashSet<>();
+        for (InMemoryTable table : acu.tables.values()) {
+            tableIds.add(table.getTableId());
+        }
+        for (int i = 0; manifest.containsKey(TABLE + i + ".name"); i++) {
+            String tableName = manifest.getProperty(TABLE + i + ".name");
+            if (acu.tables.containsKey(tableName))
+                throw new IOException("Table " + tableName + " already exists");
+            String tableId = manifest.getProperty(TABLE + i + ".id");
+            if (tableId != null && tableIds.contains(tableId))
+                throw new IOException("Table id " + tableId + " of " + tableName + " is already in use");
+        }
+        
+        for (String key : manifest.stringPropertyNames()) {
+            if (key.startsWith(SYSTEM_PROPERTY))
+                acu.systemProperties.put(key.substring(SYSTEM_PROPERTY.length()), manifest.getProperty(key));
+        }
+        
+        for (int i = 0; manifest.containsKey(NAMESPACE + i + ".name"); i++) {
+            String prefix = NAMESPACE + i + ".";
+            String name = manifest.getProperty(prefix + "name");
+            InMemoryNamespace namespace = acu.namespaces.get(name);
+            if (namespace == null) {
+                namespace = new InMemoryNamespace();
+                acu.namespaces.put(name, namespace);
+            }
+            namespace.settings.clear();
+            namespace.settings.putAll(withPrefix(manifest, prefix + PROPERTY));
+            namespace.userPermissions.clear();
+            for (Entry<String,String> entry : withPrefix(manifest, prefix + PERMISSION).entrySet()) {
+                namespace.userPermissions.put(entry.getKey(), split(entry.getValue(), NamespacePermission.class));
+            }
+        }
+        
+        for (int i = 0; manifest.containsKey(USER + i + ".name"); i++) {
+            String prefix = USER + i + ".";
+            AuthenticationToken token = AuthenticationTokenSerializer.deserialize(manifest.getProperty(prefix + "token.class"),
+                            decode(manifest.getProperty(prefix + "token")));
+            String auths = manifest.getProperty(prefix + "authorizations");
+            InMemoryUser user = new InMemoryUser(manifest.getProperty(prefix + "name"), token,
+                            auths.isEmpty() ? Authorizations.EMPTY : new Authorizations(auths.getBytes(UTF_8)));
+            user.permissions.addAll(split(manifest.getProperty(prefix + PERMISSION.substring(0, PERMISSION.length() - 1)), SystemPermission.class));
+            acu.users.put(user.name, user);
+        }
+        
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; manifest.containsKey(TABLE + i + ".name"); i++) {
+            Path tableDir = new Path(dir, manifest.getProperty(TABLE + i + ".dir"));
+            Properties tableManifest = readManifest(fs, new Path(tableDir, TABLE_MANIFEST));
+            InMemoryTable table = createTable(acu, null, manifest.getProperty(TABLE + i + ".name"), manifest.getProperty(TABLE + i + ".id"), tableManifest);
+            tasks.addAll(loadTasks(fs, table, tableDir, tableManifest));
+        }
+        runAll(acu, tasks);
+    }
+    
+    /**
+     * Write the manifest and one RFile per tablet for each table. The tablet files of all tables are written in parallel.
+     */
+    private static void exportTables(InMemoryAccumulo acu, FileSystem fs, Map<Path,InMemoryTable> tables) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Entry<Path,InMemoryTable> entry : tables.entrySet()) {
+            Path dir = entry.getKey();
+            InMemoryTable table = entry.getValue();
+            if (fs.exists(new Path(dir, TABLE_MANIFEST)))
+                throw new IOException("Export directory " + dir + " already contains an export");
+            fs.mkdirs(dir);
+            
+            Properties manifest = new Properties();
+            manifest.setProperty(TIME_TYPE, table.getTimeType().name());
+            manifest.setProperty(MUTATION_COUNT, Integer.toString(table.getMutationCount()));
+            for (Entry<String,String> setting : table.settings.entrySet()) {
+                manifest.setProperty(PROPERTY + setting.getKey(), setting.getValue());
+            }
+            for (Entry<String,Set<Text>> group : table.getLocalityGroups().entrySet()) {
+                List<String> families = new ArrayList<>();
+                for (Text family : group.getValue()) {
+                    families.add(encode(family));
+                }
+                manifest.setProperty(LOCALITY_GROUP + group.getKey(), String.join(",", families));
+            }
+            for (Entry<String,EnumSet<TablePermission>> permissions : table.userPermissions.entrySet()) {
+                manifest.setProperty(PERMISSION + permissions.getKey(), join(permissions.getValue()));
+            }
+            
+            CryptoService cs = CryptoFactoryLoader.getServiceForClient(CryptoEnvironment.Scope.TABLE, table.settings);
+            String compression = table.settings.get(Property.TABLE_FILE_COMPRESSION_TYPE.getKey());
+            List<Text> splits = new ArrayList<>(table.getSplits());
+            Key start = null;
+            for (int i = 0; i <= splits.size(); i++) {
+                Text split = i < splits.size() ? splits.get(i) : null;
+                if (split != null)
+                    manifest.setProperty(SPLIT + i, encode(split));
+                Key end = split == null ? null : new Key(split).followingKey(PartialKey.ROW);
+                Range range = new Range(start, true, end, false);
+                SortedKeyValueIterator<Key,Value> tablet = table.createIterator();
+                String name = String.format("tablet-%05d.rf", i);
+                manifest.setProperty(FILE + i, name);
+                tasks.add(() -> {
+                    writeTablet(fs, cs, compression, new Path(dir, name), tablet, range);
+                    return null;
+                });
+                start = end;
+            }
+            writeManifest(fs, new Path(dir, TABLE_MANIFEST), manifest);
+        }
+        runAll(acu, tasks);
+    }
+    
+    /**
+     * Write a tablet to a sorted file. Entries with identical keys are distinguished only by their mutation count, newest first; they are written oldest first so
+     * that loading the file in order assigns increasing counts and reproduces the original order.
+     */
+    private static void writeTablet(FileSystem fs, CryptoService cs, String compression, Path file, SortedKeyValueIterator<Key,Value> tablet, Range range)
+                    throws IOException {
+        FileOperations.WriterBuilder builder = FileOperations.getInstance().newWriterBuilder().forFile(file.toString(), fs, fs.getConf(), cs)
+                        .withTableConfiguration(DefaultConfiguration.getInstance());
+        if (compression != null)
+            builder = builder.withCompression(compression);
+        FileSKVWriter writer = builder.build();
+        try {
+            writer.startDefaultLocalityGroup();
+            List<Entry<Key,Value>> run = new ArrayList<>();
+            for (tablet.seek(range, Collections.emptySet(), false); tablet.hasTop(); tablet.next()) {
+                Key key = tablet.getTopKey();
+                if (!run.isEmpty() && !run.get(0).getKey().equals(key, PartialKey.ROW_COLFAM_COLQUAL_COLVIS_TIME_DEL)) {
+                    appendRun(writer, run);
+                }
+                run.add(new SimpleImmutableEntry<>(new Key(key), new Value(tablet.getTopValue())));
+            }
+            appendRun(writer, run);
+        } finally {
+            writer.close();
+        }
+    }
+    
+    private static void appendRun(FileSKVWriter writer, List<Entry<Key,Value>> run) throws IOException {
+        for (int i = run.size() - 1; i >= 0; i--) {
+            writer.append(new Key(run.get(i).getKey()), run.get(i).getValue());
+        }
+        run.clear();
+    }
+    
+    private static InMemoryTable createTable(InMemoryAccumulo acu, String username, String tableName, String tableId, Properties manifest) throws IOException {
+        String namespace = TableNameUtil.qualify(tableName).getFirst();
+        if (!acu.namespaces.containsKey(namespace))
+            throw new IOException("Namespace " + namespace + " does not exist");
+        Map<String,String> properties = withPrefix(manifest, PROPERTY);
+        if (!acu.createTable(username, tableName, tableId, TimeType.valueOf(manifest.getProperty(TIME_TYPE)), new HashMap<>(properties)))
+            throw new IOException("Table " + tableName + " already exists");
+        InMemoryTable table = acu.tables.get(tableName);
+        table.settings.clear();
+        table.settings.putAll(properties);
+        // the sample starts out empty and is filled as the tablet files are loaded
+        table.propertiesChanged();
+        table.configureSampler();
+        table.advanceMutationCount(Integer.parseInt(manifest.getProperty(MUTATION_COUNT, "0")));
+        
+        SortedMap<Integer,Text> splits = new TreeMap<>();
+        for (Entry<String,String> entry : withPrefix(manifest, SPLIT).entrySet()) {
+            splits.put(Integer.parseInt(entry.getKey()), new Text(decode(entry.getValue())));
+        }
+        table.addSplits(new TreeSet<>(splits.values()));
+        
+        Map<String,Set<Text>> groups = new TreeMap<>();
+        for (Entry<String,String> entry : withPrefix(manifest, LOCALITY_GROUP).entrySet()) {
+            Set<Text> families = new HashSet<>();
+            for (String family : entry.getValue().split(",")) {
+                if (!family.isEmpty())
+                    families.add(new Text(decode(family)));
+            }
+            groups.put(entry.getKey(), families);
+        }
+        table.setLocalityGroups(groups);
+        
+        if (username == null) {
+            table.userPermissions.clear();
+            for (Entry<String,String> entry : withPrefix(manifest, PERMISSION).entrySet()) {
+                table.userPermissions.put(entry.getKey(), split(entry.getValue(), TablePermission.class));
+            }
+        }
+        return table;
+    }
+    
+    private static List<Callable<Void>> loadTasks(FileSystem fs, InMemoryTable table, Path dir, Properties manifest) {
+        CryptoService cs = CryptoFactoryLoader.getServiceForClient(CryptoEnvironment.Scope.TABLE, table.settings);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (String name : withPrefix(manifest, FILE).values()) {
+            Path file = new Path(dir, name);
+            tasks.add(() -> {
+                InMemoryTableOperations.loadFile(table, fs, cs, file, -1);
+                return null;
+            });
+        }
+        return tasks;
+    }
+    
+    private static void runAll(InMemoryAccumulo acu, List<Callable<Void>> tasks) throws IOException {
+        if (tasks.isEmpty())
+            return;
+        ExecutorService executor = acu.newExecutor("InMemorySnapshot", Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (Callable<Void> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private static Properties readManifest(FileSystem fs, Path path) throws IOException {
+        Properties manifest = new Properties();
+        try (InputStream in = fs.open(path)) {
+            manifest.load(in);
+        }
+        return manifest;
+    }
+    
+    private static void writeManifest(FileSystem fs, Path path, Properties manifest) throws IOException {
+        try (OutputStream out = fs.create(path, false)) {
+            manifest.store(out, "InMemoryAccumulo export");
+        }
+    }
+    
+    private static Map<String,String> withPrefix(Properties manifest, String prefix) {
+        Map<String,String> result = new TreeMap<>();
+        for (String key : manifest.stringPropertyNames()) {
+            if (key.startsWith(prefix))
+                result.put(key.substring(prefix.length()), manifest.getProperty(key));
+        }
+        return result;
+    }
+    
+    private static String join(Set<? extends Enum<?>> values) {
+        List<String> names = new ArrayList<>();
+        for (Enum<?> value : values) {
+            names.add(value.name());
+        }
+        return String.join(",", names);
+    }
+    
+    private static <E extends Enum<E>> EnumSet<E> split(String value, Class<E> type) {
+        EnumSet<E> result = EnumSet.noneOf(type);
+        if (value != null) {
+            for (String name : value.split(",")) {
+                if (!name.isEmpty())
+                    result.add(Enum.valueOf(type, name));
+            }
+        }
+        return result;
+    }
+    
+    private static String encode(Text text) {
+        return encode(text.copyBytes());
+    }
+    
+    private static String encode(byte[] bytes) {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+    
+    private static byte[] decode(String value) {
+        return Base64.getDecoder().decode(value);
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.hadoop.io.WritableComparator;
+
+import datawave.accumulo.inmemory.InMemoryTable.InMemoryMemKey;
+
+/**
+ * An immutable, sorted run of table entries held in the heap in packed form. A run is what a memtable becomes when it is frozen and no segment directory is
+ * configured.
+ * <p>
+ * Rather than a {@link Key} and {@link Value} object per entry, a run keeps the bytes of all entries in a few large blocks and the fixed size fields in
+ * primitive arrays: for each entry the position of its record in the blocks, its timestamp, and its mutation count and delete flag packed into a long. Each
+ * record holds the lengths of the row, column family, column qualifier, column visibility and value followed by their bytes. Seeks compare the packed bytes
+ * directly, and {@link Key} and {@link Value} objects are only created for the entries a scan reads.
+ */
+final class InMemorySortedRun {
+    
+    // records never span blocks; a record larger than this gets a block of its own
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int HEADER_SIZE = 5 * 4;
+    
+    private final byte[][] blocks;
+    // block index in the high int, offset in the low int
+    private final long[] positions;
+    private final long[] timestamps;
+    // mutation count shifted left one, with the delete flag in the low bit
+    private final long[] sequences;
+    
+    private InMemorySortedRun(byte[][] blocks, long[] positions, long[] timestamps, long[] sequences) {
+        this.blocks = blocks;
+        this.positions = positions;
+        this.timestamps = timestamps;
+        this.sequences = sequences;
+    }
+    
+    /**
+     * Create a run holding the entries of a sorted map. The map must not be modified while the run is created.
+     */
+    static InMemorySortedRun of(Map<Key,Value> map) {
+        Builder builder = new Builder();
+        for (Entry<Key,Value> entry : map.entrySet()) {
+            builder.add(entry.getKey(), entry.getValue());
+        }
+        return builder.build();
+    }
+    
+    /**
+     * Create a run holding the remaining entries of a source, which must already be seeked.
+     */
+    static InMemorySortedRun of(SortedKeyValueIterator<Key,Value> source) throws IOException {
+        Builder builder = new Builder();
+        for (; source.hasTop(); source.next()) {
+            builder.add(source.getTopKey(), source.getTopValue());
+        }
+        return builder.build();
+    }
+    
+    /**
+     * @return the number of entries in this run
+     */
+    int size() {
+        return positions.length;
+    }
+    
+    /**
+     * @return an iterator over the entries of this run
+     */
+    SortedKeyValueIterator<Key,Value> iterator() {
+        return new RunIterator(this);
+    }
+    
+    private static int readInt(byte[] block, int offset) {
+        return ((block[offset] & 0xff) << 24) | ((block[offset + 1] & 0xff) << 16) | ((block[offset + 2] & 0xff) << 8) | (block[offset + 3] & 0xff);
+    }
+    
+    private static void writeInt(byte[] block, int offset, int value) {
+        block[offset] = (byte) (value >>> 24);
+        block[offset + 1] = (byte) (value >>> 16);
+        block[offset + 2] = (byte) (value >>> 8);
+        block[offset + 3] = (byte) value;
+    }
+    
+    /**
+     * Compare the key of an entry with a key, in the order of {@link Key#compareTo(Key)}. The mutation count of the entry is not compared.
+     */
+    private int compare(int index, Key key) {
+        byte[] block = blocks[(int) (positions[index] >>> 32)];
+        int offset = (int) positions[index];
+        int data = offset + HEADER_SIZE;
+        int compare = compareField(block, offset, data, key.getRowData());
+        if (compare != 0)
+            return compare;
+        data += readInt(block, offset);
+        compare = compareField(block, offset + 4, data, key.getColumnFamilyData());
+        if (compare != 0)
+            return compare;
+        data += readInt(block, offset + 4);
+        compare = compareField(block, offset + 8, data, key.getColumnQualifierData());
+        if (compare != 0)
+            return compare;
+        data += readInt(block, offset + 8);
+        compare = compareField(block, offset + 12, data, key.getColumnVisibilityData());
+        if (compare != 0)
+            return compare;
+        compare = Long.compare(key.getTimestamp(), timestamps[index]);
+        if (compare != 0)
+            return compare;
+        boolean deleted = (sequences[index] & 1) != 0;
+        if (deleted != key.isDeleted())
+            return deleted ? -1 : 1;
+        return 0;
+    }
+    
+    private static int compareField(byte[] block, int lengthOffset, int data, ByteSequence field) {
+        return WritableComparator.compareBytes(block, data, readInt(block, lengthOffset), field.getBackingArray(), field.offset(), field.length());
+    }
+    
+    private Key key(int index) {
+        byte[] block = blocks[(int) (positions[index] >>> 32)];
+        int offset = (int) positions[index];
+        int data = offset + HEADER_SIZE;
+        byte[][] fields = new byte[4][];
+        for (int i = 0; i < fields.length; i++) {
+            int length = readInt(block, offset + i * 4);
+            fields[i] = Arrays.copyOfRange(block, data, data + length);
+            data += length;
+        }
+        long sequence = sequences[index];
+        Key key = new Key(fields[0], fields[1], fields[2], fields[3], timestamps[index], (sequence & 1) != 0, false);
+        return new InMemoryMemKey(key, (int) (sequence >>> 1));
+    }
+    
+    private Value value(int index) {
+        byte[] block = blocks[(int) (positions[index] >>> 32)];
+        int offset = (int) positions[index];
+        int data = offset + HEADER_SIZE;
+        for (int i = 0; i < 4; i++) {
+            data += readInt(block, offset + i * 4);
+        }
+        return new Value(Arrays.copyOfRange(block, data, data + readInt(block, offset + 16)), false);
+    }
+    
+    /**
+     * Packs sorted entries into a run.
+     */
+    private static final class Builder {
+        private final List<byte[]> blocks = new ArrayList<>();
+        private byte[] block;
+        private int blockOffset;
+        private long[] positions = new long[1024];
+        private long[] timestamps = new long[1024];
+        private long[] sequences = new long[1024];
+        private int size = 0;
+        
+        void add(Key key, Value value) {
+            ByteSequence[] fields = {key.getRowData(), key.getColumnFamilyData(), key.getColumnQualifierData(), key.getColumnVisibilityData()};
+            int length = HEADER_SIZE + value.getSize();
+            for (ByteSequence field : fields) {
+                length += field.length();
+            }
+            if (block == null || blockOffset + length > block.length) {
+                finishBlock();
+                block = new byte[Math.max(BLOCK_SIZE, length)];
+                blockOffset = 0;
+            }
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                sequences = Arrays.copyOf(sequences, size * 2);
+            }
+            positions[size] = ((long) blocks.size() << 32) | blockOffset;
+            timestamps[size] = key.getTimestamp();
+            int count = key instanceof InMemoryMemKey ? ((InMemoryMemKey) key).getCount() : 0;
+            sequences[size] = ((long) count << 1) | (key.isDeleted() ? 1 : 0);
+            size++;
+            
+            int data = blockOffset + HEADER_SIZE;
+            for (int i = 0; i < fields.length; i++) {
+                writeInt(block, blockOffset + i * 4, fields[i].length());
+                System.arraycopy(fields[i].getBackingArray(), fields[i].offset(), block, data, fields[i].length());
+                data += fields[i].length();
+            }
+            writeInt(block, blockOffset + 16, value.getSize());
+            System.arraycopy(value.get(), 0, block, data, value.getSize());
+            blockOffset = data + value.getSize();
+        }
+        
+        private void finishBlock() {
+            if (block != null)
+                blocks.add(blockOffset == block.length ? block : Arrays.copyOf(block, blockOffset));
+        }
+        
+        InMemorySortedRun build() {
+            finishBlock();
+            block = null;
+            return new InMemorySortedRun(blocks.toArray(new byte[0][]), Arrays.copyOf(positions, size), Arrays.copyOf(timestamps, size),
+                            Arrays.copyOf(sequences, size));
+        }
+    }
+    
+    static class RunIterator implements SortedKeyValueIterator<Key,Value> {
+        private final InMemorySortedRun run;
+        private Range range;
+        private int index;
+        private boolean hasTop;
+        private Key topKey;
+        private Value topValue;
+        
+        RunIterator(InMemorySortedRun run) {
+            this.run = run;
+        }
+        
+        @Override
+        public void init(SortedKeyValueIterator<Key,Value> source, Map<String,String> options, IteratorEnvironment env) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public boolean hasTop() {
+            return hasTop;
+        }
+        
+        @Override
+        public void next() throws IOException {
+            index++;
+            checkTop();
+        }
+        
+        @Override
+        public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+            this.range = range;
+            int low = 0;
+            int high = run.size();
+            if (range.getStartKey() != null) {
+                Key start = range.getStartKey();
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (run.compare(mid, start) < 0)
+                        low = mid + 1;
+                    else
+                        high = mid;
+                }
+                if (!range.isStartKeyInclusive()) {
+                    while (low < run.size() && run.compare(low, start) == 0) {
+                        low++;
+                    }
+                }
+            }
+            index = low;
+            checkTop();
+        }
+        
+        private void checkTop() {
+            topKey = null;
+            topValue = null;
+            hasTop = index < run.size();
+            if (hasTop && range.getEndKey() != null) {
+                int compare = run.compare(index, range.getEndKey());
+                hasTop = range.isEndKeyInclusive() ? compare <= 0 : compare < 0;
+            }
+        }
+        
+        @Override
+        public Key getTopKey() {
+            if (topKey == null && hasTop)
+                topKey = run.key(index);
+            return topKey;
+        }
+        
+        @Override
+        public Value getTopValue() {
+            if (topValue == null && hasTop)
+                topValue = run.value(index);
+            return topValue;
+        }
+        
+        @Override
+        public SortedKeyValueIterator<Key,Value> deepCopy(IteratorEnvironment env) {
+            return new RunIterator(run);
+        }
+    }
+}
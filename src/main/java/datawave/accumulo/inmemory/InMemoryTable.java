@@ -16,27 +16,68 @@
  */
 package datawave.accumulo.inmemory;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableSet;
+import java.util.Properties;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import org.apache.accumulo.core.client.ConditionalWriter.Status;
+import org.apache.accumulo.core.client.SampleNotPresentException;
 import org.apache.accumulo.core.client.admin.TimeType;
+import org.apache.accumulo.core.client.sample.Sampler;
+import org.apache.accumulo.core.client.sample.SamplerConfiguration;
 import org.apache.accumulo.core.conf.DefaultConfiguration;
 import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.data.ArrayByteSequence;
 import org.apache.accumulo.core.data.ColumnUpdate;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.PartialKey;
+import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.Filter;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
 import org.apache.accumulo.core.iteratorsImpl.IteratorConfigUtil;
+import org.apache.accumulo.core.iteratorsImpl.system.DeletingIterator;
+import org.apache.accumulo.core.iteratorsImpl.system.MultiIterator;
+import org.apache.accumulo.core.iteratorsImpl.system.SortedMapIterator;
+import org.apache.accumulo.core.sample.impl.SamplerConfigurationImpl;
+import org.apache.accumulo.core.sample.impl.SamplerFactory;
 import org.apache.accumulo.core.security.TablePermission;
 import org.apache.hadoop.io.Text;
 
@@ -60,6 +101,10 @@ public class InMemoryTable {
             return (other instanceof InMemoryMemKey) && super.equals(other) && count == ((InMemoryMemKey) other).count;
         }
         
+        int getCount() {
+            return count;
+        }
+        
         @Override
         public String toString() {
             return super.toString() + " count=" + count;
@@ -81,13 +126,157 @@ public class InMemoryTable {
         }
     }
     
-    final SortedMap<Key,Value> table = new ConcurrentSkipListMap<>();
-    int mutationCount = 0;
+    /**
+     * Receives each mutation, and the time assigned to it, before it is applied to the table, and returns the position it was logged at.
+     */
+    interface MutationLog {
+        long append(long now, Mutation m) throws IOException;
+    }
+    
+    /**
+     * Receives each row deletion before it is applied to the table, and returns the position it was logged at.
+     */
+    interface DeletionLog {
+        long append(Key start, Key end) throws IOException;
+    }
+    
+    /**
+     * Decides, while the lock for the row of a conditional mutation is held, whether the mutation is applied.
+     */
+    interface MutationCheck {
+        boolean test() throws IOException;
+    }
+    
+    /**
+     * The sorted sources that currently make up the table: the memtable receiving writes, memtables that have been frozen and are being written to runs or
+     * segments, the in-heap sorted runs, oldest first, and the mapped segments. A new instance is published whenever the set changes so that a scan always
+     * sees a consistent set of sources.
+     */
+    static final class Sources {
+        final ConcurrentSkipListMap<Key,Value> memtable;
+        final List<SortedMap<Key,Value>> frozen;
+        final List<InMemorySortedRun> runs;
+        final List<InMemorySegment> segments;
+        
+        Sources(ConcurrentSkipListMap<Key,Value> memtable, List<SortedMap<Key,Value>> frozen, List<InMemorySortedRun> runs, List<InMemorySegment> segments) {
+            this.memtable = memtable;
+            this.frozen = Collections.unmodifiableList(frozen);
+            this.runs = Collections.unmodifiableList(runs);
+            this.segments = Collections.unmodifiableList(segments);
+        }
+        
+        boolean isMemtableOnly() {
+            return frozen.isEmpty() && runs.isEmpty() && segments.isEmpty();
+        }
+    }
+    
+    /**
+     * Local directory in which the table keeps its immutable data as memory-mapped segment files. When unset all data stays in the in-heap memtable.
+     */
+    public static final String SEGMENT_DIR = Property.TABLE_ARBITRARY_PROP_PREFIX.getKey() + "inmemory.segment.dir";
+    
+    /**
+     * Number of entries after which the memtable is frozen: written to a new segment when {@link #SEGMENT_DIR} is set, otherwise turned into an immutable
+     * sorted run in the heap. This is done in the background when the table has a compaction executor.
+     */
+    public static final String MEMTABLE_MAX_ENTRIES = Property.TABLE_ARBITRARY_PROP_PREFIX.getKey() + "inmemory.memtable.max.entries";
+    
+    /**
+     * Number of entries after which a tablet is split automatically, in addition to the size limit set by {@link Property#TABLE_SPLIT_THRESHOLD}. Unset by
+     * default.
+     */
+    public static final String SPLIT_THRESHOLD_ENTRIES = Property.TABLE_ARBITRARY_PROP_PREFIX.getKey() + "inmemory.split.threshold.entries";
+    
+    /**
+     * Maximum number of entries kept in the cache of complete scan results, see {@link InMemoryScanCache}. Scans are not cached when unset or zero.
+     */
+    public static final String SCAN_CACHE_ENTRIES = Property.TABLE_ARBITRARY_PROP_PREFIX.getKey() + "inmemory.scan.cache.entries";
+    
+    /**
+     * Number of entries a batch scan steps over between nearby ranges before it seeks to the next range instead, see {@link InMemoryBatchScanPlan}. Every
+     * range is seeked when unset or zero.
+     */
+    public static final String BATCH_SCAN_SKIP_ENTRIES = Property.TABLE_ARBITRARY_PROP_PREFIX.getKey() + "inmemory.batch.scan.skip.entries";
+    
+    static final long DEFAULT_MEMTABLE_MAX_ENTRIES = 1_000_000;
+    static final String SEGMENT_MANIFEST = "segments";
+    private static final String SEGMENT_PREFIX = "segment-";
+    
+    /**
+     * The sample of the table: every entry accepted by the configured sampler, kept in memory regardless of where the table data itself lives.
+     */
+    static final class Sample {
+        final SamplerConfigurationImpl config;
+        final Sampler sampler;
+        final ConcurrentSkipListMap<Key,Value> entries = new ConcurrentSkipListMap<>();
+        
+        Sample(SamplerConfigurationImpl config, Sampler sampler) {
+            this.config = config;
+            this.sampler = sampler;
+        }
+    }
+    
+    /**
+     * The approximate amount of data written to a tablet, used to decide when to split it.
+     */
+    static final class TabletSize {
+        final LongAdder entries = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        volatile long nextCheck = 0;
+        
+        TabletSize(long entries, long bytes) {
+            this.entries.add(entries);
+            this.bytes.add(bytes);
+        }
+    }
+    
+    volatile Sources sources = new Sources(new ConcurrentSkipListMap<>(), Collections.emptyList(), Collections.emptyList(),
+                    Collections.emptyList());
+    private volatile Sample sample;
+    private volatile InMemoryTableStatistics statistics = new InMemoryTableStatistics();
+    private volatile boolean statisticsStale = false;
+    // keyed by the end row of the tablet, or LAST_TABLET
+    private final Map<Text,TabletSize> tabletSizes = new ConcurrentHashMap<>();
+    private static final Text LAST_TABLET = new Text();
+    private final ReentrantLock splitLock = new ReentrantLock();
+    private final AtomicLong memtableEntries = new AtomicLong(0);
+    private final AtomicLong version = new AtomicLong(0);
+    private final AtomicLong settingsVersion = new AtomicLong(0);
+    private volatile InMemoryTableConfiguration configuration;
+    private volatile InMemoryPluginEnvironment pluginEnvironment;
+    private volatile InMemoryScanCache scanCache;
+    private final ReentrantReadWriteLock memtableLock = new ReentrantReadWriteLock();
+    private final ReentrantLock compactionLock = new ReentrantLock();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+    private volatile Supplier<Executor> compactionExecutor;
+    // resolves table ids to names for the plugin environment, see InMemoryAccumulo#getTableName
+    private volatile Function<String,String> tableNames = tableId -> null;
+    private volatile IOException compactionFailure;
+    private long nextSegmentSeq = 1;
+    // the highest log position applied to the table, updated under the memtable read lock or while writers are excluded
+    private final AtomicLong loggedPosition = new AtomicLong(0);
+    // guarded by compactionLock
+    private long frozenPosition = 0;
+    // the log position up to which the segments hold every logged change
+    private volatile long segmentsPosition = 0;
+    private static final int ROW_LOCK_STRIPES = 256;
+    private final Lock[] rowLocks = new Lock[ROW_LOCK_STRIPES];
+    {
+        for (int i = 0; i < rowLocks.length; i++) {
+            rowLocks[i] = new ReentrantLock();
+        }
+    }
+    // the last mutation count handed out, and the count up to which every mutation is registered in pendingCounts or completely applied
+    private final AtomicInteger mutationCount = new AtomicInteger(0);
+    private final AtomicInteger registeredCount = new AtomicInteger(0);
+    private final ConcurrentSkipListSet<Integer> pendingCounts = new ConcurrentSkipListSet<>();
+    // concurrent so that configuration snapshots can be taken while properties are being changed
     final Map<String,String> settings;
     Map<String,EnumSet<TablePermission>> userPermissions = new HashMap<>();
     private TimeType timeType;
-    SortedSet<Text> splits = new ConcurrentSkipListSet<>();
+    NavigableSet<Text> splits = new ConcurrentSkipListSet<>();
     Map<String,Set<Text>> localityGroups = new TreeMap<>();
+    final Set<InMemoryScanSession> activeScans = InMemoryScanSession.newSessionSet();
     private InMemoryNamespace namespace;
     private String namespaceName;
     private String tableId;
@@ -95,7 +284,7 @@ public class InMemoryTable {
     InMemoryTable(boolean limitVersion, TimeType timeType, String tableId) {
         this.timeType = timeType;
         this.tableId = tableId;
-        settings = IteratorConfigUtil.generateInitialTableProperties(limitVersion);
+        settings = new ConcurrentHashMap<>(IteratorConfigUtil.generateInitialTableProperties(limitVersion));
         for (Entry<String,String> entry : DefaultConfiguration.getInstance()) {
             String key = entry.getKey();
             if (key.startsWith(Property.TABLE_PREFIX.getKey()))
@@ -122,7 +311,7 @@ public class InMemoryTable {
     public InMemoryTable(InMemoryNamespace namespace, TimeType timeType, String tableId, Map<String,String> properties) {
         this.timeType = timeType;
         this.tableId = tableId;
-        settings = properties;
+        settings = new ConcurrentHashMap<>();
         for (Entry<String,String> entry : DefaultConfiguration.getInstance()) {
             String key = entry.getKey();
             if (key.startsWith(Property.TABLE_PREFIX.getKey()))
@@ -137,36 +326,1091 @@ public class InMemoryTable {
             if (key.startsWith(Property.TABLE_PREFIX.getKey()))
                 settings.put(key, entry.getValue());
         }
+        
+        settings.putAll(properties);
+    }
+    
+    void addMutation(Mutation m) {
+        addMutation(m, null);
+    }
+    
+    /**
+     * Add a mutation, first appending it to the given log along with the time assigned to it. Only the lock for the mutation's row is held while the mutation
+     * is logged and applied, so writers to different rows do not block each other, and the log holds the mutations of each row in the order they were applied.
+     * 
+     * @param m
+     *            the mutation
+     * @param log
+     *            the log to append to, or null
+     */
+    void addMutation(Mutation m, MutationLog log) {
+        if (m.size() == 0)
+            throw new IllegalArgumentException("Can not add empty mutations");
+        Lock rowLock = getRowLock(m.getRow());
+        rowLock.lock();
+        try {
+            logAndApply(m, System.currentTimeMillis(), log);
+        } finally {
+            rowLock.unlock();
+        }
+        flushIfFull();
+        splitIfNeeded(m.getRow());
     }
     
-    synchronized void addMutation(Mutation m) {
+    /**
+     * Add a mutation if a check made while holding the lock for its row passes, first appending it to the given log.
+     * 
+     * @param m
+     *            the mutation
+     * @param log
+     *            the log to append to, or null
+     * @param timeout
+     *            the number of milliseconds to wait for the row lock
+     * @param check
+     *            decides whether the mutation is applied
+     * @return {@link Status#ACCEPTED} if the mutation was applied, {@link Status#REJECTED} if the check failed, or {@link Status#UNKNOWN} if the row lock could
+     *         not be acquired in time
+     * @throws IOException
+     *             if the check failed to read the table
+     * @throws InterruptedException
+     *             if interrupted while waiting for the row lock
+     */
+    Status addMutation(Mutation m, MutationLog log, long timeout, MutationCheck check) throws IOException, InterruptedException {
         if (m.size() == 0)
             throw new IllegalArgumentException("Can not add empty mutations");
-        long now = System.currentTimeMillis();
-        mutationCount++;
-        for (ColumnUpdate u : m.getUpdates()) {
-            Key key = new Key(m.getRow(), 0, m.getRow().length, u.getColumnFamily(), 0, u.getColumnFamily().length, u.getColumnQualifier(), 0,
-                            u.getColumnQualifier().length, u.getColumnVisibility(), 0, u.getColumnVisibility().length, u.getTimestamp());
-            if (u.isDeleted())
-                key.setDeleted(true);
-            if (!u.hasTimestamp())
-                if (timeType.equals(TimeType.LOGICAL))
-                    key.setTimestamp(mutationCount);
-                else
-                    key.setTimestamp(now);
-                
-            table.put(new InMemoryMemKey(key, mutationCount), new Value(u.getValue()));
+        Lock rowLock = getRowLock(m.getRow());
+        if (!rowLock.tryLock(timeout, TimeUnit.MILLISECONDS))
+            return Status.UNKNOWN;
+        try {
+            if (!check.test())
+                return Status.REJECTED;
+            logAndApply(m, System.currentTimeMillis(), log);
+        } finally {
+            rowLock.unlock();
+        }
+        flushIfFull();
+        splitIfNeeded(m.getRow());
+        return Status.ACCEPTED;
+    }
+    
+    /**
+     * Log and apply a mutation. Both happen under the memtable read lock, so that when the memtable is frozen it holds every mutation logged up to
+     * {@link #loggedPosition}.
+     */
+    private void logAndApply(Mutation m, long now, MutationLog log) {
+        memtableLock.readLock().lock();
+        try {
+            long position = 0;
+            if (log != null) {
+                try {
+                    position = log.append(now, m);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to log mutation", e);
+                }
+            }
+            applyMutation(m, now);
+            if (position > 0)
+                loggedPosition.accumulateAndGet(position, Math::max);
+        } finally {
+            memtableLock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Apply a mutation read from a write-ahead log using the time that was assigned to it when it was first applied, unless the segments of the table already
+     * hold it.
+     * 
+     * @param m
+     *            the mutation
+     * @param now
+     *            the time assigned to entries without a timestamp
+     * @param position
+     *            the position the mutation was logged at
+     */
+    void replayMutation(Mutation m, long now, long position) {
+        if (position <= segmentsPosition)
+            return;
+        Lock rowLock = getRowLock(m.getRow());
+        rowLock.lock();
+        try {
+            logAndApply(m, now, (time, mutation) -> position);
+        } finally {
+            rowLock.unlock();
+        }
+        flushIfFull();
+        splitIfNeeded(m.getRow());
+    }
+    
+    /**
+     * Set where to get the executor that full memtables are frozen or flushed on, so that writers do not wait for it. The executor is only requested once a
+     * memtable is full. Without one, the writer that fills the memtable freezes or flushes it.
+     */
+    void setCompactionExecutor(Supplier<Executor> executor) {
+        this.compactionExecutor = executor;
+    }
+    
+    /**
+     * Set how the plugin environment of the table resolves table ids to names, returning null for ids that do not exist.
+     */
+    void setTableNames(Function<String,String> tableNames) {
+        this.tableNames = tableNames;
+        pluginEnvironment = null;
+    }
+    
+    /**
+     * Freeze or flush the memtable once it is full, unless that is already scheduled or under way. A failure in the background is thrown to the next writer.
+     */
+    private void flushIfFull() {
+        IOException failure = compactionFailure;
+        if (failure != null) {
+            compactionFailure = null;
+            throw new UncheckedIOException("Unable to freeze or flush the memtable", failure);
+        }
+        if (memtableEntries.get() >= getConfiguration().getMemtableMaxEntries() && !compactionLock.isLocked() && compactionScheduled.compareAndSet(false, true)) {
+            Supplier<Executor> supplier = compactionExecutor;
+            Executor executor = supplier == null ? null : supplier.get();
+            if (executor == null) {
+                try {
+                    freezeOrFlush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Unable to freeze or flush the memtable", e);
+                }
+                return;
+            }
+            executor.execute(() -> {
+                try {
+                    freezeOrFlush();
+                } catch (IOException e) {
+                    compactionFailure = e;
+                }
+            });
+        }
+    }
+    
+    private void freezeOrFlush() throws IOException {
+        try {
+            if (getSegmentDir() == null)
+                freeze();
+            else
+                flush();
+        } finally {
+            compactionScheduled.set(false);
+        }
+    }
+    
+    /**
+     * Apply a mutation under its own mutation count. The count stays in {@link #pendingCounts} until every update has been inserted, and iterators created in
+     * the meantime hide it, so scans see either all of the mutation or none of it.
+     */
+    private void applyMutation(Mutation m, long now) {
+        int count = registerMutationCounts(1);
+        try {
+            memtableLock.readLock().lock();
+            try {
+                ConcurrentSkipListMap<Key,Value> table = sources.memtable;
+                Sample s = sample;
+                InMemoryTableStatistics stats = statistics;
+                for (ColumnUpdate u : m.getUpdates()) {
+                    Key key = new Key(m.getRow(), 0, m.getRow().length, u.getColumnFamily(), 0, u.getColumnFamily().length, u.getColumnQualifier(), 0,
+                                    u.getColumnQualifier().length, u.getColumnVisibility(), 0, u.getColumnVisibility().length, u.getTimestamp());
+                    if (u.isDeleted())
+                        key.setDeleted(true);
+                    if (!u.hasTimestamp())
+                        if (timeType.equals(TimeType.LOGICAL))
+                            key.setTimestamp(count);
+                        else
+                            key.setTimestamp(now);
+                    
+                    InMemoryMemKey memKey = new InMemoryMemKey(key, count);
+                    Value value = new Value(u.getValue());
+                    table.put(memKey, value);
+                    if (s != null && s.sampler.accept(key))
+                        s.entries.put(memKey, value);
+                    if (!u.isDeleted())
+                        stats.update(key);
+                }
+            } finally {
+                memtableLock.readLock().unlock();
+            }
+            memtableEntries.addAndGet(m.size());
+            TabletSize size = getTabletSize(new Text(m.getRow()));
+            size.entries.add(m.size());
+            size.bytes.add(m.numBytes());
+        } finally {
+            pendingCounts.remove(count);
+            markModified();
+        }
+    }
+    
+    /**
+     * Get the lock for a row. Locks are striped by the hash of the row, so writers to different rows rarely share a lock.
+     * 
+     * @param row
+     *            the row
+     * @return the lock guarding the row
+     */
+    Lock getRowLock(byte[] row) {
+        return rowLocks[(Arrays.hashCode(row) & Integer.MAX_VALUE) % ROW_LOCK_STRIPES];
+    }
+    
+    /**
+     * Hand out a contiguous block of mutation counts and add them to {@link #pendingCounts}. The counts are registered in the order they were handed out, so
+     * that {@link #visible} can read the registered count and then the pending counts without a lock: every count up to the registered one is either pending
+     * or completely applied. A writer only waits for writers that were handed earlier counts to add them.
+     * 
+     * @param count
+     *            the number of counts
+     * @return the first count
+     */
+    private int registerMutationCounts(int count) {
+        int last = mutationCount.addAndGet(count);
+        int first = last - count + 1;
+        for (int i = first; i <= last; i++) {
+            pendingCounts.add(i);
+        }
+        while (registeredCount.get() < first - 1) {
+            Thread.yield();
+        }
+        registeredCount.accumulateAndGet(last, Math::max);
+        return first;
+    }
+    
+    /**
+     * @return the last mutation count handed out
+     */
+    int getMutationCount() {
+        return mutationCount.get();
+    }
+    
+    /**
+     * Advance the mutation count so that subsequent mutations are numbered after the given count. Only called while the table is being opened or imported,
+     * before it is written to.
+     * 
+     * @param count
+     *            the minimum mutation count
+     */
+    void advanceMutationCount(int count) {
+        mutationCount.accumulateAndGet(count, Math::max);
+        registeredCount.accumulateAndGet(count, Math::max);
+    }
+    
+    /**
+     * @return the write-ahead log position up to which the segments of the table hold every logged change
+     */
+    long getSegmentsPosition() {
+        return segmentsPosition;
+    }
+    
+    /**
+     * Load a run of entries, as read from a sorted file, directly into the table. Each entry is given its own mutation count in the order supplied so that the
+     * result is the same as adding each entry as a separate mutation, but without building mutations or holding the table lock while inserting. The counts stay
+     * in {@link #pendingCounts} until every entry has been inserted, so scans see either all of the entries or none of them.
+     * 
+     * @param keys
+     *            the keys to load
+     * @param values
+     *            the values for each key
+     */
+    void addSorted(List<Key> keys, List<Value> values) {
+        int first = registerMutationCounts(keys.size());
+        try {
+            memtableLock.readLock().lock();
+            try {
+                ConcurrentSkipListMap<Key,Value> table = sources.memtable;
+                Sample s = sample;
+                InMemoryTableStatistics stats = statistics;
+                for (int i = 0; i < keys.size(); i++) {
+                    InMemoryMemKey memKey = new InMemoryMemKey(keys.get(i), first + i);
+                    table.put(memKey, values.get(i));
+                    if (s != null && s.sampler.accept(memKey))
+                        s.entries.put(memKey, values.get(i));
+                    if (!memKey.isDeleted())
+                        stats.update(memKey);
+                }
+            } finally {
+                memtableLock.readLock().unlock();
+            }
+            memtableEntries.addAndGet(keys.size());
+        } finally {
+            for (int i = 0; i < keys.size(); i++) {
+                pendingCounts.remove(first + i);
+            }
+            markModified();
+        }
+        
+        Text tabletEnd = null;
+        TabletSize size = null;
+        for (int i = 0; i < keys.size(); i++) {
+            Text row = keys.get(i).getRow();
+            if (size == null || (tabletEnd != null && row.compareTo(tabletEnd) > 0)) {
+                size = getTabletSize(row);
+                tabletEnd = splits.ceiling(row);
+            }
+            size.entries.increment();
+            size.bytes.add(keys.get(i).getSize() + values.get(i).getSize());
+        }
+        flushIfFull();
+        if (!keys.isEmpty())
+            splitIfNeeded(keys.get(keys.size() - 1).getRow().copyBytes());
+    }
+    
+    /**
+     * Returns a number that increases every time data or settings of the table change in a way that could change the results of a scan. It is advanced after
+     * the change is visible to scans, so a scan that started at a version has seen at least all changes up to that version.
+     * 
+     * @return the current version of the table
+     */
+    long getVersion() {
+        return version.get();
+    }
+    
+    /**
+     * Advance the {@link #getVersion() version} of the table after a change to its data or settings.
+     */
+    void markModified() {
+        version.incrementAndGet();
+    }
+    
+    /**
+     * Record a change to the table's settings, so that a new {@link #getConfiguration() configuration} snapshot is taken and scans do not use results cached
+     * before the change.
+     */
+    void propertiesChanged() {
+        settingsVersion.incrementAndGet();
+        markModified();
+    }
+    
+    /**
+     * Returns the plugin environment for iterators scanning the table. The same instance is returned until the table's properties change.
+     */
+    InMemoryPluginEnvironment getPluginEnvironment() {
+        InMemoryTableConfiguration config = getConfiguration();
+        InMemoryPluginEnvironment env = pluginEnvironment;
+        if (env == null || env.getAccumuloConfiguration() != config) {
+            env = new InMemoryPluginEnvironment(tableId, config, tableNames);
+            pluginEnvironment = env;
+        }
+        return env;
+    }
+    
+    /**
+     * Returns a snapshot of the configuration of the table. The same instance is returned until the table's properties change.
+     */
+    InMemoryTableConfiguration getConfiguration() {
+        long current = settingsVersion.get();
+        InMemoryTableConfiguration config = configuration;
+        if (config == null || config.getUpdateCount() != current) {
+            config = new InMemoryTableConfiguration(settings, current);
+            configuration = config;
+        }
+        return config;
+    }
+    
+    /**
+     * Returns the cache of scan results for the table, or null if {@link #SCAN_CACHE_ENTRIES} is not set.
+     */
+    InMemoryScanCache getScanCache() {
+        long maxEntries = getConfiguration().getScanCacheEntries();
+        InMemoryScanCache cache = scanCache;
+        if (maxEntries <= 0) {
+            scanCache = null;
+            return null;
+        }
+        if (cache == null || cache.getMaxEntries() != maxEntries) {
+            synchronized (this) {
+                cache = scanCache;
+                if (cache == null || cache.getMaxEntries() != maxEntries)
+                    scanCache = cache = new InMemoryScanCache(this, maxEntries);
+            }
+        }
+        return cache;
+    }
+    
+    private TabletSize getTabletSize(Text row) {
+        Text end = splits.ceiling(row);
+        return tabletSizes.computeIfAbsent(end == null ? LAST_TABLET : end, k -> new TabletSize(0, 0));
+    }
+    
+    /**
+     * Split the tablet holding the given row if the data written to it has passed {@link Property#TABLE_SPLIT_THRESHOLD} or {@link #SPLIT_THRESHOLD_ENTRIES}.
+     * The tablet is split at the row where half of its data has been seen, so both new tablets hold data.
+     */
+    private void splitIfNeeded(byte[] row) {
+        Text end = splits.ceiling(new Text(row));
+        TabletSize size = tabletSizes.get(end == null ? LAST_TABLET : end);
+        if (size == null)
+            return;
+        InMemoryTableConfiguration config = getConfiguration();
+        long entries = size.entries.sum();
+        long bytes = size.bytes.sum();
+        boolean byEntries = entries >= config.getSplitThresholdEntries();
+        if (!byEntries && bytes < config.getSplitThreshold())
+            return;
+        long progress = byEntries ? entries : bytes;
+        if (progress < size.nextCheck || !splitLock.tryLock())
+            return;
+        try {
+            if (tabletSizes.get(end == null ? LAST_TABLET : end) != size)
+                return;
+            Text prev = end == null ? (splits.isEmpty() ? null : splits.last()) : splits.lower(end);
+            SortedKeyValueIterator<Key,Value> source = createLatestIterator();
+            source.seek(new Range(prev, false, end, true), Collections.emptySet(), false);
+            long seenEntries = 0;
+            long seenBytes = 0;
+            Text mid = null;
+            for (; source.hasTop(); source.next()) {
+                Key key = source.getTopKey();
+                if (mid != null && !key.getRowData().equals(new ArrayByteSequence(mid.getBytes(), 0, mid.getLength()))) {
+                    splits.add(mid);
+                    tabletSizes.put(mid, new TabletSize(seenEntries, seenBytes));
+                    tabletSizes.put(end == null ? LAST_TABLET : end, new TabletSize(Math.max(0, entries - seenEntries), Math.max(0, bytes - seenBytes)));
+                    return;
+                }
+                seenEntries++;
+                seenBytes += key.getSize() + source.getTopValue().getSize();
+                if (mid == null && (byEntries ? seenEntries * 2 >= entries : seenBytes * 2 >= bytes))
+                    mid = key.getRow();
+            }
+            // all of the data is in one row, or was deleted; try again once the tablet has grown
+            size.nextCheck = progress * 2;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to split tablet", e);
+        } finally {
+            splitLock.unlock();
+        }
+    }
+    
+    /**
+     * Re-estimate the size of each tablet from the table statistics after the splits of the table were changed by something other than an automatic split.
+     */
+    private void resetTabletSizes() {
+        long totalEntries = 0;
+        long totalBytes = 0;
+        for (TabletSize size : tabletSizes.values()) {
+            totalEntries += size.entries.sum();
+            totalBytes += size.bytes.sum();
+        }
+        double bytesPerEntry = totalEntries == 0 ? 0 : (double) totalBytes / totalEntries;
+        Map<Range,Long> estimates = statistics.estimateSplitEntries(new ArrayList<>(splits));
+        tabletSizes.clear();
+        Iterator<Long> counts = estimates.values().iterator();
+        for (Text split : splits) {
+            long count = counts.next();
+            tabletSizes.put(split, new TabletSize(count, Math.round(count * bytesPerEntry)));
+        }
+        long last = counts.next();
+        tabletSizes.put(LAST_TABLET, new TabletSize(last, Math.round(last * bytesPerEntry)));
+    }
+    
+    /**
+     * Create an iterator over all of the table data, as of when it is created. Mutations that are still being applied, and mutations started later, are
+     * hidden.
+     * 
+     * @return an unseeked iterator over the table
+     */
+    SortedKeyValueIterator<Key,Value> createIterator() {
+        return new SampleSwitchingIterator(visible(createLatestIterator()));
+    }
+    
+    /**
+     * Create an iterator over the sample of the table, as of when it is created.
+     * 
+     * @param config
+     *            the sampler configuration the caller expects
+     * @return an unseeked iterator over the sample
+     * @throws SampleNotPresentException
+     *             if the table has no sampler configured, or its configuration differs from the given one
+     */
+    SortedKeyValueIterator<Key,Value> createSampleIterator(SamplerConfiguration config) {
+        Sample s = sample;
+        if (s == null || !s.config.equals(new SamplerConfigurationImpl(config)))
+            throw new SampleNotPresentException();
+        return new SampleSwitchingIterator(visible(new SortedMapIterator(s.entries)));
+    }
+    
+    private SortedKeyValueIterator<Key,Value> visible(SortedKeyValueIterator<Key,Value> source) {
+        int maxCount = registeredCount.get();
+        int[] hidden = pendingCounts.headSet(maxCount, true).stream().mapToInt(Integer::intValue).toArray();
+        return new VisibleMutationFilter(source, maxCount, hidden);
+    }
+    
+    /**
+     * @return the current statistics of the table
+     * @throws IOException
+     *             if the statistics had to be rebuilt and the table data could not be read
+     */
+    InMemoryTableStatistics getStatistics() throws IOException {
+        if (statisticsStale) {
+            compactionLock.lock();
+            try {
+                if (statisticsStale)
+                    rebuildStatistics();
+            } finally {
+                compactionLock.unlock();
+            }
+        }
+        return statistics;
+    }
+    
+    /**
+     * Replace the statistics of the table with statistics computed from its current data, dropping deleted entries. Entries written while the statistics are
+     * rebuilt may be counted twice.
+     * 
+     * @throws IOException
+     *             if the table data could not be read
+     */
+    void rebuildStatistics() throws IOException {
+        InMemoryTableStatistics stats = new InMemoryTableStatistics();
+        statistics = stats;
+        statisticsStale = false;
+        SortedKeyValueIterator<Key,Value> source = DeletingIterator.wrap(createLatestIterator(), false, DeletingIterator.Behavior.PROCESS);
+        for (source.seek(new Range(), Collections.emptySet(), false); source.hasTop(); source.next()) {
+            stats.update(source.getTopKey());
+        }
+    }
+    
+    /**
+     * @return the sampler configuration of the table, or null if no sampler is configured
+     */
+    SamplerConfiguration getSamplerConfiguration() {
+        Sample s = sample;
+        return s == null ? null : s.config.toSamplerConfiguration();
+    }
+    
+    /**
+     * Configure the sample from the sampler properties of the table and rebuild it from the table data. Entries written while the sample is being rebuilt are
+     * added by their writers.
+     * 
+     * @throws IOException
+     *             if the sampler could not be created
+     */
+    void configureSampler() throws IOException {
+        try {
+            createSample();
+        } finally {
+            markModified();
+        }
+    }
+    
+    private void createSample() throws IOException {
+        SamplerConfigurationImpl config = getConfiguration().getSamplerConfiguration();
+        if (config == null) {
+            sample = null;
+            return;
+        }
+        Sample s = new Sample(config, SamplerFactory.newSampler(config, getConfiguration()));
+        sample = s;
+        SortedKeyValueIterator<Key,Value> source = createLatestIterator();
+        for (source.seek(new Range(), Collections.emptySet(), false); source.hasTop(); source.next()) {
+            Key key = source.getTopKey();
+            if (s.sampler.accept(key))
+                s.entries.put(key, new Value(source.getTopValue()));
+        }
+    }
+    
+    /**
+     * Create an iterator over all of the table data, including mutations that are still being applied. This is only safe for reads of rows whose row locks
+     * are held by the caller. When the table consists of only the memtable this is a plain iterator over the skip list, otherwise the memtable, frozen
+     * memtables and segments are merged.
+     * 
+     * @return an unseeked iterator over the table
+     */
+    SortedKeyValueIterator<Key,Value> createLatestIterator() {
+        Sources current = sources;
+        if (current.isMemtableOnly())
+            return new SortedMapIterator(current.memtable);
+        List<SortedKeyValueIterator<Key,Value>> iters = new ArrayList<>();
+        iters.add(new SortedMapIterator(current.memtable));
+        for (SortedMap<Key,Value> frozen : current.frozen) {
+            iters.add(new SortedMapIterator(frozen));
+        }
+        for (InMemorySortedRun run : current.runs) {
+            iters.add(run.iterator());
+        }
+        for (InMemorySegment segment : current.segments) {
+            iters.add(segment.iterator());
+        }
+        return new MultiIterator(iters, false);
+    }
+    
+    Path getSegmentDir() {
+        return getConfiguration().getSegmentDir();
+    }
+    
+    /**
+     * Map the segments listed in the manifest of the segment directory, if one is configured, replacing any segments currently in use. The mapped data is
+     * available immediately; no entries are read, and the statistics of the table are rebuilt when they are first requested.
+     * 
+     * @throws IOException
+     *             if the segments could not be mapped
+     */
+    void openSegments() throws IOException {
+        Path dir = getSegmentDir();
+        if (dir == null)
+            return;
+        compactionLock.lock();
+        try {
+            Files.createDirectories(dir);
+            Path manifestFile = dir.resolve(SEGMENT_MANIFEST);
+            List<InMemorySegment> segments = new ArrayList<>();
+            if (Files.exists(manifestFile)) {
+                Properties manifest = new Properties();
+                try (InputStream in = Files.newInputStream(manifestFile)) {
+                    manifest.load(in);
+                }
+                for (int i = 0; manifest.containsKey("segment." + i); i++) {
+                    InMemorySegment segment = InMemorySegment.open(dir.resolve(manifest.getProperty("segment." + i)));
+                    advanceMutationCount(segment.maxCount);
+                    segments.add(segment);
+                }
+                nextSegmentSeq = Long.parseLong(manifest.getProperty("next.seq", "1"));
+                segmentsPosition = Long.parseLong(manifest.getProperty("log.position", "0"));
+                loggedPosition.accumulateAndGet(segmentsPosition, Math::max);
+            }
+            synchronized (this) {
+                sources = new Sources(sources.memtable, sources.frozen, sources.runs, segments);
+            }
+            statisticsStale = !segments.isEmpty();
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+    
+    /**
+     * Replace the memtable with a fresh one, keeping the old memtable visible to scans in the list of frozen memtables. Must be called with the compaction
+     * lock held.
+     * 
+     * @return the frozen memtable, or null if the memtable was empty
+     */
+    private ConcurrentSkipListMap<Key,Value> freezeMemtable() {
+        memtableLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                frozenPosition = loggedPosition.get();
+                ConcurrentSkipListMap<Key,Value> frozen = sources.memtable;
+                if (frozen.isEmpty())
+                    return null;
+                List<SortedMap<Key,Value>> frozenList = new ArrayList<>(sources.frozen);
+                frozenList.add(frozen);
+                sources = new Sources(new ConcurrentSkipListMap<>(), frozenList, sources.runs, sources.segments);
+                memtableEntries.set(0);
+                return frozen;
+            }
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Freeze the memtable into an immutable sorted run in the heap. Writes continue into a fresh memtable, and the frozen memtable remains visible to scans
+     * until the run has been built. Newer runs are then merged into older ones of no greater size, so that a table holds a number of runs logarithmic in its
+     * size and each entry is copied a logarithmic number of times.
+     * 
+     * @throws IOException
+     *             if the runs could not be merged
+     */
+    void freeze() throws IOException {
+        compactionLock.lock();
+        try {
+            ConcurrentSkipListMap<Key,Value> frozen = freezeMemtable();
+            if (frozen == null)
+                return;
+            InMemorySortedRun run = InMemorySortedRun.of(frozen);
+            synchronized (this) {
+                List<SortedMap<Key,Value>> frozenList = new ArrayList<>(sources.frozen);
+                frozenList.remove(frozen);
+                List<InMemorySortedRun> runs = new ArrayList<>(sources.runs);
+                runs.add(run);
+                sources = new Sources(sources.memtable, frozenList, runs, sources.segments);
+            }
+            
+            List<InMemorySortedRun> runs = sources.runs;
+            int from = runs.size() - 1;
+            long size = runs.get(from).size();
+            while (from > 0 && runs.get(from - 1).size() <= size) {
+                from--;
+                size += runs.get(from).size();
+            }
+            if (from < runs.size() - 1)
+                mergeRuns(runs.subList(from, runs.size()), false);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+    
+    /**
+     * Merge sorted runs into one, replacing them in the sources of the table. Must be called with the compaction lock held.
+     * 
+     * @param merging
+     *            the runs to merge, which must be consecutive in the current list of runs
+     * @param dropDeletes
+     *            whether to drop delete entries and the entries they delete, which is only correct when all of the table data outside the memtable is
+     *            being merged
+     */
+    private void mergeRuns(List<InMemorySortedRun> merging, boolean dropDeletes) throws IOException {
+        List<SortedKeyValueIterator<Key,Value>> iters = new ArrayList<>();
+        for (InMemorySortedRun run : merging) {
+            iters.add(run.iterator());
+        }
+        SortedKeyValueIterator<Key,Value> source = new MultiIterator(iters, false);
+        if (dropDeletes)
+            source = DeletingIterator.wrap(source, false, DeletingIterator.Behavior.PROCESS);
+        source.seek(new Range(), Collections.emptySet(), false);
+        InMemorySortedRun merged = InMemorySortedRun.of(source);
+        replaceRuns(merging, merged.size() == 0 ? Collections.emptyList() : Collections.singletonList(merged));
+    }
+    
+    private synchronized void replaceRuns(List<InMemorySortedRun> old, List<InMemorySortedRun> replacement) {
+        List<InMemorySortedRun> runs = new ArrayList<>();
+        for (InMemorySortedRun run : sources.runs) {
+            if (run == old.get(0))
+                runs.addAll(replacement);
+            if (!old.contains(run))
+                runs.add(run);
+        }
+        sources = new Sources(sources.memtable, sources.frozen, runs, sources.segments);
+    }
+    
+    /**
+     * Freeze the memtable and write it, along with any sorted runs, to a new segment. Writes continue into a fresh memtable, and the frozen memtable remains
+     * visible to scans until the segment has been written and mapped. Does nothing if no segment directory is configured.
+     * 
+     * @throws IOException
+     *             if the segment could not be written
+     */
+    void flush() throws IOException {
+        Path dir = getSegmentDir();
+        if (dir == null)
+            return;
+        compactionLock.lock();
+        try {
+            ConcurrentSkipListMap<Key,Value> frozen = freezeMemtable();
+            List<InMemorySortedRun> runs = sources.runs;
+            if (frozen == null && runs.isEmpty())
+                return;
+            
+            Files.createDirectories(dir);
+            List<SortedKeyValueIterator<Key,Value>> iters = new ArrayList<>();
+            if (frozen != null)
+                iters.add(new SortedMapIterator(frozen));
+            for (InMemorySortedRun run : runs) {
+                iters.add(run.iterator());
+            }
+            SortedKeyValueIterator<Key,Value> source = iters.size() == 1 ? iters.get(0) : new MultiIterator(iters, false);
+            source.seek(new Range(), Collections.emptySet(), false);
+            List<InMemorySegment> written = writeSegments(dir, source);
+            
+            synchronized (this) {
+                List<SortedMap<Key,Value>> frozenList = new ArrayList<>(sources.frozen);
+                frozenList.remove(frozen);
+                List<InMemorySegment> segments = new ArrayList<>(sources.segments);
+                segments.addAll(written);
+                sources = new Sources(sources.memtable, frozenList, Collections.emptyList(), segments);
+            }
+            segmentsPosition = frozenPosition;
+            writeSegmentManifest(dir);
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+    
+    /**
+     * Flush the memtable and merge all segments into new segments, dropping deleted entries, then rebuild the statistics of the table. If no segment directory
+     * is configured the memtable is frozen and all sorted runs are merged into one instead.
+     * 
+     * @throws IOException
+     *             if the segments could not be written
+     */
+    void compact() throws IOException {
+        Path dir = getSegmentDir();
+        compactionLock.lock();
+        try {
+            if (dir != null) {
+                flush();
+                List<InMemorySegment> old = sources.segments;
+                if (!old.isEmpty()) {
+                    List<SortedKeyValueIterator<Key,Value>> iters = new ArrayList<>();
+                    for (InMemorySegment segment : old) {
+                        iters.add(segment.iterator());
+                    }
+                    SortedKeyValueIterator<Key,Value> source = DeletingIterator.wrap(new MultiIterator(iters, false), false,
+                                    DeletingIterator.Behavior.PROCESS);
+                    source.seek(new Range(), Collections.emptySet(), false);
+                    replaceSegments(dir, old, writeSegments(dir, source));
+                }
+            } else {
+                freeze();
+                List<InMemorySortedRun> runs = sources.runs;
+                if (!runs.isEmpty())
+                    mergeRuns(runs, sources.segments.isEmpty());
+            }
+            rebuildStatistics();
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+    
+    /**
+     * Remove all entries in the given key range from the memtable, sample, sorted runs and segments, then rebuild the statistics of the table. Runs and
+     * segments holding entries in the range are rewritten without them. The deletion is logged and the memtable cleared while writers are excluded, so that
+     * mutations logged after the deletion are not removed by it.
+     * 
+     * @param start
+     *            the first key to remove, or null to start at the beginning of the table
+     * @param end
+     *            the key after the last key to remove, or null to continue to the end of the table
+     * @param log
+     *            the log to append the deletion to, or null
+     * @throws IOException
+     *             if the deletion could not be logged or a segment could not be rewritten
+     */
+    void deleteRows(Key start, Key end, DeletionLog log) throws IOException {
+        compactionLock.lock();
+        try {
+            try {
+                deleteRange(start, end, log);
+            } finally {
+                markModified();
+            }
+            rebuildStatistics();
+            splitLock.lock();
+            try {
+                resetTabletSizes();
+            } finally {
+                splitLock.unlock();
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+    
+    /**
+     * Apply a row deletion read from a write-ahead log, unless the segments of the table already reflect it.
+     * 
+     * @param start
+     *            the first key to remove, or null to start at the beginning of the table
+     * @param end
+     *            the key after the last key to remove, or null to continue to the end of the table
+     * @param position
+     *            the position the deletion was logged at
+     * @throws IOException
+     *             if a segment could not be rewritten
+     */
+    void replayDeleteRows(Key start, Key end, long position) throws IOException {
+        if (position > segmentsPosition)
+            deleteRows(start, end, (s, e) -> position);
+    }
+    
+    private void deleteRange(Key start, Key end, DeletionLog log) throws IOException {
+        memtableLock.writeLock().lock();
+        try {
+            if (log != null)
+                loggedPosition.accumulateAndGet(log.append(start, end), Math::max);
+            clearRange(sources.memtable, start, end);
+            Sample s = sample;
+            if (s != null)
+                clearRange(s.entries, start, end);
+        } finally {
+            memtableLock.writeLock().unlock();
+        }
+        
+        Range range = new Range(start, true, end, false);
+        for (InMemorySortedRun run : sources.runs) {
+            SortedKeyValueIterator<Key,Value> iter = run.iterator();
+            iter.seek(range, Collections.emptySet(), false);
+            if (!iter.hasTop())
+                continue;
+            SortedKeyValueIterator<Key,Value> source = new ExcludingRangeFilter(run.iterator(), range);
+            source.seek(new Range(), Collections.emptySet(), false);
+            InMemorySortedRun remaining = InMemorySortedRun.of(source);
+            replaceRuns(Collections.singletonList(run), remaining.size() == 0 ? Collections.emptyList() : Collections.singletonList(remaining));
+        }
+        
+        List<InMemorySegment> affected = new ArrayList<>();
+        for (InMemorySegment segment : sources.segments) {
+            SortedKeyValueIterator<Key,Value> iter = segment.iterator();
+            iter.seek(range, Collections.emptySet(), false);
+            if (iter.hasTop())
+                affected.add(segment);
+        }
+        if (affected.isEmpty())
+            return;
+        Path dir = affected.get(0).file.getParent();
+        List<InMemorySegment> written = new ArrayList<>();
+        for (InMemorySegment segment : affected) {
+            SortedKeyValueIterator<Key,Value> source = new ExcludingRangeFilter(segment.iterator(), range);
+            source.seek(new Range(), Collections.emptySet(), false);
+            written.addAll(writeSegments(dir, source));
+        }
+        replaceSegments(dir, affected, written);
+    }
+    
+    private static void clearRange(ConcurrentSkipListMap<Key,Value> map, Key start, Key end) {
+        if (start == null && end == null)
+            map.clear();
+        else if (start == null)
+            map.headMap(end).clear();
+        else if (end == null)
+            map.tailMap(start).clear();
+        else
+            map.subMap(start, end).clear();
+    }
+    
+    private List<InMemorySegment> writeSegments(Path dir, SortedKeyValueIterator<Key,Value> source) throws IOException {
+        List<InMemorySegment> written = InMemorySegment.write(dir, SEGMENT_PREFIX, source, nextSegmentSeq);
+        nextSegmentSeq += written.size();
+        return written;
+    }
+    
+    private void replaceSegments(Path dir, List<InMemorySegment> old, List<InMemorySegment> written) throws IOException {
+        synchronized (this) {
+            List<InMemorySegment> segments = new ArrayList<>();
+            for (InMemorySegment segment : sources.segments) {
+                if (segment == old.get(0))
+                    segments.addAll(written);
+                if (!old.contains(segment))
+                    segments.add(segment);
+            }
+            sources = new Sources(sources.memtable, sources.frozen, sources.runs, segments);
+        }
+        writeSegmentManifest(dir);
+        for (InMemorySegment segment : old) {
+            Files.deleteIfExists(segment.file);
+        }
+    }
+    
+    /**
+     * Atomically replace the segment manifest with the current list of segments. The manifest is the commit point for flushes and compactions; segment files
+     * which are not listed are ignored when the segments are reopened.
+     */
+    private void writeSegmentManifest(Path dir) throws IOException {
+        Properties manifest = new Properties();
+        List<InMemorySegment> segments = sources.segments;
+        for (int i = 0; i < segments.size(); i++) {
+            manifest.setProperty("segment." + i, segments.get(i).file.getFileName().toString());
+        }
+        manifest.setProperty("next.seq", Long.toString(nextSegmentSeq));
+        manifest.setProperty("log.position", Long.toString(segmentsPosition));
+        Path tmp = dir.resolve(SEGMENT_MANIFEST + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            manifest.store(out, "InMemoryTable segments");
+        }
+        Files.move(tmp, dir.resolve(SEGMENT_MANIFEST), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    /**
+     * Passes through the entries of mutations that were completely applied when the filter was created.
+     */
+    static class VisibleMutationFilter extends Filter {
+        private final int maxCount;
+        private final int[] hidden;
+        
+        VisibleMutationFilter(SortedKeyValueIterator<Key,Value> source, int maxCount, int[] hidden) {
+            setSource(source);
+            this.maxCount = maxCount;
+            this.hidden = hidden;
+        }
+        
+        @Override
+        public boolean accept(Key k, Value v) {
+            int count = ((InMemoryMemKey) k).getCount();
+            return count <= maxCount && (hidden.length == 0 || Arrays.binarySearch(hidden, count) < 0);
+        }
+        
+        @Override
+        public SortedKeyValueIterator<Key,Value> deepCopy(IteratorEnvironment env) {
+            return new VisibleMutationFilter(getSource().deepCopy(env), maxCount, hidden);
+        }
+    }
+    
+    /**
+     * Source iterator for scans of the table. A deep copy made with an environment that has sampling enabled reads the sample of the table instead.
+     */
+    class SampleSwitchingIterator extends WrappingIterator {
+        
+        SampleSwitchingIterator(SortedKeyValueIterator<Key,Value> source) {
+            setSource(source);
+        }
+        
+        @Override
+        public SortedKeyValueIterator<Key,Value> deepCopy(IteratorEnvironment env) {
+            if (env != null && env.isSamplingEnabled())
+                return createSampleIterator(env.getSamplerConfiguration());
+            return new SampleSwitchingIterator(getSource().deepCopy(env));
+        }
+    }
+    
+    /**
+     * Passes through every entry that is not in the given range.
+     */
+    static class ExcludingRangeFilter extends Filter {
+        private final Range range;
+        
+        ExcludingRangeFilter(SortedKeyValueIterator<Key,Value> source, Range range) {
+            setSource(source);
+            this.range = range;
+        }
+        
+        @Override
+        public boolean accept(Key k, Value v) {
+            return !range.contains(k);
         }
     }
     
     public void addSplits(SortedSet<Text> partitionKeys) {
-        splits.addAll(partitionKeys);
+        splitLock.lock();
+        try {
+            splits.addAll(partitionKeys);
+            resetTabletSizes();
+        } finally {
+            splitLock.unlock();
+        }
     }
     
     public Collection<Text> getSplits() {
         return splits;
     }
     
+    /**
+     * Returns the splits of this table that cut the range, in order. These are the end rows of every tablet the range spans except the last.
+     */
+    List<Text> getSplitsWithin(Range range) {
+        Key startKey = range.getStartKey();
+        Collection<Text> candidates = startKey == null ? splits : splits.tailSet(startKey.getRow(), true);
+        List<Text> cuts = new ArrayList<>();
+        for (Text split : candidates) {
+            Key cut = new Key(split).followingKey(PartialKey.ROW);
+            if (range.afterEndKey(cut))
+                break;
+            if (range.contains(cut) && (startKey == null || cut.compareTo(startKey) > 0))
+                cuts.add(split);
+        }
+        return cuts;
+    }
+    
+    /**
+     * Cut a range after each of the given rows.
+     * 
+     * @param range
+     *            the range to cut
+     * @param rows
+     *            rows that cut the range, in order, as returned by {@link #getSplitsWithin(Range)}
+     * @return the pieces of the range, in order
+     */
+    static List<Range> cutRange(Range range, List<Text> rows) {
+        List<Range> ranges = new ArrayList<>(rows.size() + 1);
+        Key start = range.getStartKey();
+        boolean startInclusive = range.isStartKeyInclusive();
+        for (Text row : rows) {
+            Key cut = new Key(row).followingKey(PartialKey.ROW);
+            ranges.add(new Range(start, startInclusive, cut, false));
+            start = cut;
+            startInclusive = true;
+        }
+        ranges.add(new Range(start, startInclusive, range.getEndKey(), range.isEndKeyInclusive()));
+        return ranges;
+    }
+    
     public void setLocalityGroups(Map<String,Set<Text>> groups) {
         localityGroups = groups;
     }
@@ -176,12 +1420,18 @@ public class InMemoryTable {
     }
     
     public void merge(Text start, Text end) {
-        boolean reAdd = false;
-        if (splits.contains(start))
-            reAdd = true;
-        splits.removeAll(splits.subSet(start, end));
-        if (reAdd)
-            splits.add(start);
+        splitLock.lock();
+        try {
+            boolean reAdd = false;
+            if (splits.contains(start))
+                reAdd = true;
+            splits.removeAll(splits.subSet(start, end));
+            if (reAdd)
+                splits.add(start);
+            resetTabletSizes();
+        } finally {
+            splitLock.unlock();
+        }
     }
     
     public void setNamespaceName(String n) {
@@ -203,4 +1453,8 @@ public class InMemoryTable {
     public String getTableId() {
         return this.tableId;
     }
+    
+    public TimeType getTimeType() {
+        return this.timeType;
+    }
 }
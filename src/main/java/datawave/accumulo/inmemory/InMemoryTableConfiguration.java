@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import org.apache.accumulo.core.conf.AccumuloConfiguration;
+import org.apache.accumulo.core.conf.ConfigurationTypeHelper;
+import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.dataImpl.thrift.IterInfo;
+import org.apache.accumulo.core.iterators.IteratorUtil.IteratorScope;
+import org.apache.accumulo.core.iteratorsImpl.IteratorConfigUtil;
+import org.apache.accumulo.core.sample.impl.SamplerConfigurationImpl;
+
+/**
+ * An immutable snapshot of the configuration of a table. A new snapshot is taken each time the table's properties change, numbered by
+ * {@link #getUpdateCount()}, and the values the table and its scans need are parsed once when the snapshot is taken rather than on every use. Iterators
+ * receive the snapshot from {@link org.apache.accumulo.core.iterators.IteratorEnvironment#getConfig()}, and can use the update count to cache their own
+ * derived values.
+ */
+public final class InMemoryTableConfiguration extends AccumuloConfiguration {
+    
+    // in-memory properties that hold a number of entries
+    private static final Set<String> ENTRY_COUNT_PROPERTIES = Set.of(InMemoryTable.SPLIT_THRESHOLD_ENTRIES, InMemoryTable.MEMTABLE_MAX_ENTRIES,
+                    InMemoryTable.SCAN_CACHE_ENTRIES, InMemoryTable.BATCH_SCAN_SKIP_ENTRIES);
+    
+    private final Map<String,String> properties;
+    private final long version;
+    private final List<IterInfo> scanIterators;
+    private final Map<String,Map<String,String>> scanIteratorOptions;
+    private final long splitThreshold;
+    private final long splitThresholdEntries;
+    private final long memtableMaxEntries;
+    private final Path segmentDir;
+    private final long scanCacheEntries;
+    private final long batchScanSkipEntries;
+    private final SamplerConfigurationImpl samplerConfiguration;
+    
+    InMemoryTableConfiguration(Map<String,String> settings, long version) {
+        this.properties = Collections.unmodifiableMap(new HashMap<>(settings));
+        this.version = version;
+        
+        Map<String,Map<String,String>> options = new HashMap<>();
+        this.scanIterators = Collections.unmodifiableList(IteratorConfigUtil.parseIterConf(IteratorScope.scan, Collections.emptyList(), options, this));
+        this.scanIteratorOptions = Collections.unmodifiableMap(options);
+        
+        String threshold = properties.get(Property.TABLE_SPLIT_THRESHOLD.getKey());
+        this.splitThreshold = ConfigurationTypeHelper.getFixedMemoryAsBytes(threshold == null ? Property.TABLE_SPLIT_THRESHOLD.getDefaultValue() : threshold);
+        this.splitThresholdEntries = parseLong(InMemoryTable.SPLIT_THRESHOLD_ENTRIES, Long.MAX_VALUE);
+        this.memtableMaxEntries = parseLong(InMemoryTable.MEMTABLE_MAX_ENTRIES, InMemoryTable.DEFAULT_MEMTABLE_MAX_ENTRIES);
+        String dir = properties.get(InMemoryTable.SEGMENT_DIR);
+        this.segmentDir = dir == null || dir.isEmpty() ? null : Paths.get(dir);
+        this.scanCacheEntries = parseLong(InMemoryTable.SCAN_CACHE_ENTRIES, 0);
+        this.batchScanSkipEntries = parseLong(InMemoryTable.BATCH_SCAN_SKIP_ENTRIES, 0);
+        this.samplerConfiguration = SamplerConfigurationImpl.newSamplerConfig(this);
+    }
+    
+    /**
+     * Check that a value can be set for a table property, so that a malformed in-memory property is rejected when it is set rather than breaking every later
+     * snapshot of the configuration.
+     * 
+     * @param key
+     *            the property
+     * @param value
+     *            the value
+     * @throws IllegalArgumentException
+     *             if the value is missing, or the property holds a number of entries and the value is not a non-negative integer
+     */
+    static void validate(String key, String value) {
+        if (value == null)
+            throw new IllegalArgumentException("No value for table property " + key);
+        if (ENTRY_COUNT_PROPERTIES.contains(key)) {
+            long count;
+            try {
+                count = Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Table property " + key + " must be a number of entries, not " + value, e);
+            }
+            if (count < 0)
+                throw new IllegalArgumentException("Table property " + key + " must not be negative, not " + value);
+        }
+    }
+    
+    private long parseLong(String key, long defaultValue) {
+        String value = properties.get(key);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+    
+    @Override
+    public String get(Property property) {
+        return properties.get(property.getKey());
+    }
+    
+    @Override
+    public void getProperties(Map<String,String> props, Predicate<String> filter) {
+        for (Entry<String,String> entry : properties.entrySet()) {
+            if (filter.test(entry.getKey()))
+                props.put(entry.getKey(), entry.getValue());
+        }
+    }
+    
+    @Override
+    public boolean isPropertySet(Property property) {
+        return properties.containsKey(property.getKey());
+    }
+    
+    /**
+     * Returns the number of the snapshot, which increases every time the properties of the table change.
+     */
+    @Override
+    public long getUpdateCount() {
+        return version;
+    }
+    
+    /**
+     * Returns the scan iterators configured on the table, sorted by priority.
+     */
+    public List<IterInfo> getScanIterators() {
+        return scanIterators;
+    }
+    
+    /**
+     * Returns the options of the scan iterators configured on the table, by iterator name.
+     */
+    public Map<String,Map<String,String>> getScanIteratorOptions() {
+        return scanIteratorOptions;
+    }
+    
+    /**
+     * Combine the table's scan iterators with those set on a scanner, in the same way as {@link IteratorConfigUtil#loadIterConf}. The options of the
+     * scanner's iterators are added to those of the table's iterators of the same name.
+     * 
+     * @param iterators
+     *            the iterators set on the scanner
+     * @param options
+     *            the options of the iterators set on the scanner
+     * @param mergedOptions
+     *            receives the options of all of the iterators
+     * @return all of the iterators, sorted by priority
+     */
+    List<IterInfo> mergeScanIterators(List<IterInfo> iterators, Map<String,Map<String,String>> options, Map<String,Map<String,String>> mergedOptions) {
+        for (Entry<String,Map<String,String>> entry : scanIteratorOptions.entrySet()) {
+            mergedOptions.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+        for (Entry<String,Map<String,String>> entry : options.entrySet()) {
+            if (entry.getValue() != null)
+                mergedOptions.computeIfAbsent(entry.getKey(), k -> new HashMap<>()).putAll(entry.getValue());
+        }
+        if (iterators.isEmpty())
+            return scanIterators;
+        List<IterInfo> merged = new ArrayList<>(scanIterators);
+        merged.addAll(iterators);
+        merged.sort(IteratorConfigUtil.ITER_INFO_COMPARATOR);
+        return merged;
+    }
+    
+    /**
+     * Returns the size in bytes after which a tablet is split, from {@link Property#TABLE_SPLIT_THRESHOLD}.
+     */
+    public long getSplitThreshold() {
+        return splitThreshold;
+    }
+    
+    /**
+     * Returns the number of entries after which a tablet is split, from {@link InMemoryTable#SPLIT_THRESHOLD_ENTRIES}, or {@link Long#MAX_VALUE} if unset.
+     */
+    public long getSplitThresholdEntries() {
+        return splitThresholdEntries;
+    }
+    
+    /**
+     * Returns the number of entries after which the memtable is written to a segment, from {@link InMemoryTable#MEMTABLE_MAX_ENTRIES}.
+     */
+    public long getMemtableMaxEntries() {
+        return memtableMaxEntries;
+    }
+    
+    /**
+     * Returns the directory holding the table's segments, from {@link InMemoryTable#SEGMENT_DIR}, or null if the table is kept entirely in memory.
+     */
+    public Path getSegmentDir() {
+        return segmentDir;
+    }
+    
+    /**
+     * Returns the maximum number of entries in the table's scan cache, from {@link InMemoryTable#SCAN_CACHE_ENTRIES}, or zero if scans are not cached.
+     */
+    public long getScanCacheEntries() {
+        return scanCacheEntries;
+    }
+    
+    /**
+     * Returns the number of entries a batch scan steps over between ranges before seeking, from {@link InMemoryTable#BATCH_SCAN_SKIP_ENTRIES}, or zero if
+     * every range is seeked.
+     */
+    public long getBatchScanSkipEntries() {
+        return batchScanSkipEntries;
+    }
+    
+    /**
+     * Returns the sampler configured on the table, or null if there is none.
+     */
+    SamplerConfigurationImpl getSamplerConfiguration() {
+        return samplerConfiguration;
+    }
+}
@@ -20,17 +20,22 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 
 import org.apache.accumulo.core.classloader.ClassLoaderUtil;
@@ -51,6 +56,7 @@ import org.apache.accumulo.core.client.admin.TimeType;
 import org.apache.accumulo.core.client.sample.SamplerConfiguration;
 import org.apache.accumulo.core.clientImpl.TableOperationsHelper;
 import org.apache.accumulo.core.conf.DefaultConfiguration;
+import org.apache.accumulo.core.conf.Property;
 import org.apache.accumulo.core.crypto.CryptoFactoryLoader;
 import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
@@ -61,8 +67,7 @@ import org.apache.accumulo.core.dataImpl.KeyExtent;
 import org.apache.accumulo.core.dataImpl.TabletIdImpl;
 import org.apache.accumulo.core.file.FileOperations;
 import org.apache.accumulo.core.file.FileSKVIterator;
-import org.apache.accumulo.core.metadata.MetadataTable;
-import org.apache.accumulo.core.metadata.RootTable;
+import org.apache.accumulo.core.sample.impl.SamplerConfigurationImpl;
 import org.apache.accumulo.core.security.Authorizations;
 import org.apache.accumulo.core.security.ColumnVisibility;
 import org.apache.accumulo.core.spi.crypto.CryptoEnvironment;
@@ -79,9 +84,10 @@ import org.slf4j.LoggerFactory;
 
 import datawave.accumulo.inmemory.impl.InMemoryTabletLocator;
 
-class InMemoryTableOperations extends TableOperationsHelper {
+class InMemoryTableOperations extends TableOperationsHelper implements InMemoryTableStatisticsOperations {
     private static final Logger log = LoggerFactory.getLogger(InMemoryTableOperations.class);
     private static final byte[] ZERO = {0};
+    private static final int BULK_LOAD_BATCH_SIZE = 10000;
     private final InMemoryAccumulo acu;
     private final String username;
     
@@ -131,7 +137,11 @@ class InMemoryTableOperations extends TableOperationsHelper {
         if (exists(tableName))
             throw new TableExistsException(tableName, tableName, "");
         checkArgument(namespaceExists(namespace), "Namespace (" + namespace + ") does not exist, create it first");
-        acu.createTable(username, tableName, ntc.getTimeType(), ntc.getProperties());
+        for (Entry<String,String> entry : ntc.getProperties().entrySet()) {
+            InMemoryTableConfiguration.validate(entry.getKey(), entry.getValue());
+        }
+        if (!acu.createTable(username, tableName, ntc.getTimeType(), ntc.getProperties()))
+            throw new TableExistsException(tableName, tableName, "");
     }
     
     @Override
@@ -148,7 +158,7 @@ class InMemoryTableOperations extends TableOperationsHelper {
     
     @Override
     public Collection<Text> getSplits(String tableName, int maxSplits) throws TableNotFoundException {
-        return listSplits(tableName);
+        return listSplits(tableName, maxSplits);
     }
     
     @Override
@@ -158,16 +168,51 @@ class InMemoryTableOperations extends TableOperationsHelper {
         return acu.getSplits(tableName);
     }
     
+    /**
+     * Returns at most maxSplits of the table's splits. When the table has more splits than that, the splits are chosen so that the tablets between them hold
+     * roughly equal numbers of entries, as estimated from the table statistics.
+     */
     @Override
     public Collection<Text> listSplits(String tableName, int maxSplits) throws TableNotFoundException {
-        return listSplits(tableName);
+        List<Text> splits = new ArrayList<>(listSplits(tableName));
+        if (splits.size() <= maxSplits)
+            return splits;
+        return chooseSplits(splits, statistics(tableName).estimateSplitEntries(splits).values(), maxSplits);
+    }
+    
+    /**
+     * Choose maxSplits of the given splits so that the tablets between them hold roughly equal numbers of entries.
+     * 
+     * @param splits
+     *            the splits, in order
+     * @param counts
+     *            the estimated number of entries in each tablet, one more than the number of splits
+     * @param maxSplits
+     *            the number of splits to choose
+     * @return the chosen splits, in order
+     */
+    private static List<Text> chooseSplits(List<Text> splits, Collection<Long> counts, int maxSplits) {
+        List<Long> tabletCounts = new ArrayList<>(counts);
+        long total = 0;
+        for (long count : tabletCounts) {
+            total += count;
+        }
+        // weigh tablets equally when the table is empty
+        double step = (total == 0 ? tabletCounts.size() : total) / (maxSplits + 1.0);
+        List<Text> chosen = new ArrayList<>();
+        double cumulative = 0;
+        for (int i = 0; i < splits.size() && chosen.size() < maxSplits; i++) {
+            cumulative += total == 0 ? 1 : tabletCounts.get(i);
+            if (cumulative >= step * (chosen.size() + 1) || splits.size() - i <= maxSplits - chosen.size())
+                chosen.add(splits.get(i));
+        }
+        return chosen;
     }
     
     @Override
     public void delete(String tableName) throws AccumuloException, AccumuloSecurityException, TableNotFoundException {
-        if (!exists(tableName))
+        if (acu.tables.remove(tableName) == null)
             throw new TableNotFoundException(tableName, tableName, "");
-        acu.tables.remove(tableName);
     }
     
     @Override
@@ -177,36 +222,113 @@ class InMemoryTableOperations extends TableOperationsHelper {
             throw new TableNotFoundException(oldTableName, oldTableName, "");
         if (exists(newTableName))
             throw new TableExistsException(newTableName, newTableName, "");
-        InMemoryTable t = acu.tables.remove(oldTableName);
         String namespace = TableNameUtil.qualify(newTableName).getFirst();
+        acu.namespaces.putIfAbsent(namespace, new InMemoryNamespace());
         InMemoryNamespace n = acu.namespaces.get(namespace);
-        if (n == null) {
-            n = new InMemoryNamespace();
+        boolean[] renamed = new boolean[1];
+        // move the table and switch its namespace in one change, so no reader sees it half renamed
+        acu.tables.update(tables -> {
+            if (tables.containsKey(oldTableName) && !tables.containsKey(newTableName)) {
+                InMemoryTable t = tables.remove(oldTableName);
+                t.setNamespaceName(namespace);
+                t.setNamespace(n);
+                tables.put(newTableName, t);
+                renamed[0] = true;
+            }
+        });
+        if (!renamed[0]) {
+            if (exists(newTableName))
+                throw new TableExistsException(newTableName, newTableName, "");
+            throw new TableNotFoundException(oldTableName, oldTableName, "");
         }
-        t.setNamespaceName(namespace);
-        t.setNamespace(n);
-        acu.namespaces.put(namespace, n);
-        acu.tables.put(newTableName, t);
     }
     
     @Override
-    public void flush(String tableName) throws AccumuloException, AccumuloSecurityException {}
+    public void flush(String tableName) throws AccumuloException, AccumuloSecurityException {
+        InMemoryTable t = acu.tables.get(tableName);
+        if (t == null)
+            throw new AccumuloException(new TableNotFoundException(null, tableName, null));
+        try {
+            t.flush();
+        } catch (IOException e) {
+            throw new AccumuloException(e);
+        }
+    }
+    
+    private void compact(String tableName) throws AccumuloException {
+        try {
+            acu.tables.get(tableName).compact();
+        } catch (IOException e) {
+            throw new AccumuloException(e);
+        }
+    }
     
     @Override
     public void setProperty(String tableName, String property, String value) throws AccumuloException, AccumuloSecurityException {
-        acu.tables.get(tableName).settings.put(property, value);
+        InMemoryTable table = acu.tables.get(tableName);
+        try {
+            InMemoryTableConfiguration.validate(property, value);
+        } catch (IllegalArgumentException e) {
+            throw new AccumuloException(e);
+        }
+        synchronized (table.settings) {
+            table.settings.put(property, value);
+            propertiesChanged(table, isSamplerProperty(property));
+        }
     }
     
+    /**
+     * Changes the properties of the table as the mutator changes a copy of them. Changes are serialized with the other property changes of the table, and the
+     * properties are only changed if all of them are valid.
+     */
     @Override
     public Map<String,String> modifyProperties(String tableName, Consumer<Map<String,String>> mapMutator)
                     throws AccumuloException, AccumuloSecurityException, IllegalArgumentException, ConcurrentModificationException {
-        mapMutator.accept(acu.tables.get(tableName).settings);
-        return acu.tables.get(tableName).settings;
+        InMemoryTable table = acu.tables.get(tableName);
+        synchronized (table.settings) {
+            Map<String,String> properties = new HashMap<>(table.settings);
+            mapMutator.accept(properties);
+            for (Entry<String,String> entry : properties.entrySet()) {
+                InMemoryTableConfiguration.validate(entry.getKey(), entry.getValue());
+            }
+            Map<String,String> sampler = samplerProperties(table.settings);
+            table.settings.keySet().retainAll(properties.keySet());
+            table.settings.putAll(properties);
+            propertiesChanged(table, !sampler.equals(samplerProperties(properties)));
+            return properties;
+        }
     }
     
     @Override
     public void removeProperty(String tableName, String property) throws AccumuloException, AccumuloSecurityException {
-        acu.tables.get(tableName).settings.remove(property);
+        InMemoryTable table = acu.tables.get(tableName);
+        synchronized (table.settings) {
+            table.settings.remove(property);
+            propertiesChanged(table, isSamplerProperty(property));
+        }
+    }
+    
+    /**
+     * Pick up changed table properties, rebuilding the sample if a sampler property changed.
+     */
+    private static void propertiesChanged(InMemoryTable table, boolean samplerChanged) throws AccumuloException {
+        if (samplerChanged)
+            configureSampler(table);
+        else
+            table.propertiesChanged();
+    }
+    
+    private static boolean isSamplerProperty(String key) {
+        return key.startsWith(Property.TABLE_SAMPLER.getKey());
+    }
+    
+    private static Map<String,String> samplerProperties(Map<String,String> settings) {
+        Map<String,String> sampler = new HashMap<>();
+        for (Entry<String,String> entry : settings.entrySet()) {
+            if (isSamplerProperty(entry.getKey()))
+                sampler.put(entry.getKey(), entry.getValue());
+        }
+        return sampler;
     }
     
     @Override
@@ -255,9 +377,63 @@ class InMemoryTableOperations extends TableOperationsHelper {
     @Override
     public Set<Range> splitRangeByTablets(String tableName, Range range, int maxSplits)
                     throws AccumuloException, AccumuloSecurityException, TableNotFoundException {
-        if (!exists(tableName))
+        InMemoryTableStatistics statistics = statistics(tableName);
+        List<Text> cuts = acu.tables.get(tableName).getSplitsWithin(range);
+        // without tablet boundaries in the range, fall back to cutting at sampled rows
+        if (cuts.isEmpty())
+            return new HashSet<>(statistics.splitRange(range, maxSplits));
+        if (cuts.size() >= maxSplits)
+            cuts = chooseSplits(cuts, statistics.estimateSplitEntries(cuts).values(), Math.max(0, maxSplits - 1));
+        return new HashSet<>(InMemoryTable.cutRange(range, cuts));
+    }
+    
+    private InMemoryTableStatistics statistics(String tableName) throws TableNotFoundException {
+        InMemoryTable t = acu.tables.get(tableName);
+        if (t == null)
             throw new TableNotFoundException(tableName, tableName, "");
-        return Collections.singleton(range);
+        try {
+            return t.getStatistics();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to rebuild the statistics of " + tableName, e);
+        }
+    }
+    
+    @Override
+    public long getEntryCount(String tableName) throws TableNotFoundException {
+        return statistics(tableName).getEntryCount();
+    }
+    
+    @Override
+    public long estimateEntries(String tableName, Range range) throws TableNotFoundException {
+        return statistics(tableName).estimateEntries(range);
+    }
+    
+    @Override
+    public long estimateDistinctRows(String tableName, Text columnFamily) throws TableNotFoundException {
+        return statistics(tableName).estimateDistinctRows(columnFamily);
+    }
+    
+    @Override
+    public Map<Text,Long> estimateDistinctRowsByFamily(String tableName) throws TableNotFoundException {
+        return statistics(tableName).estimateDistinctRowsByFamily();
+    }
+    
+    @Override
+    public long estimateQualifierFrequency(String tableName, Text columnQualifier) throws TableNotFoundException {
+        return statistics(tableName).estimateQualifierFrequency(columnQualifier);
+    }
+    
+    @Override
+    public Map<Text,Long> getFrequentQualifiers(String tableName, int max) throws TableNotFoundException {
+        return statistics(tableName).getFrequentQualifiers(max);
+    }
+    
+    @Override
+    public Map<Range,Long> getSplitEntryCounts(String tableName) throws TableNotFoundException {
+        InMemoryTable t = acu.tables.get(tableName);
+        if (t == null)
+            throw new TableNotFoundException(tableName, tableName, "");
+        return statistics(tableName).estimateSplitEntries(new ArrayList<>(t.getSplits()));
     }
     
     @Override
@@ -301,50 +477,121 @@ class InMemoryTableOperations extends TableOperationsHelper {
             throw new IOException("Error path must be empty.");
         }
         /*
-         * Begin the import - iterate the files in the path
+         * Begin the import - load the files in the path in parallel
          */
-        for (FileStatus importStatus : fs.listStatus(importPath)) {
+        FileStatus[] importStatuses = fs.listStatus(importPath);
+        if (importStatuses.length == 0) {
+            return;
+        }
+        CryptoService cs = CryptoFactoryLoader.getServiceForClient(CryptoEnvironment.Scope.TABLE, table.settings);
+        ExecutorService executor = acu.newExecutor("InMemoryBulkImport", Math.min(importStatuses.length, Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (FileStatus importStatus : importStatuses) {
+                futures.add(executor.submit(() -> {
+                    importFile(table, fs, cs, importStatus.getPath(), failurePath, setTime ? time : -1);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AccumuloException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new AccumuloException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * Load a single file directly into the table. The keys are already sorted, so they are inserted in batches without building mutations. If the file can not
+     * be read it is copied to the failure directory. In either case the file is removed from the import directory.
+     * 
+     * @param table
+     *            the table to load into
+     * @param fs
+     *            the file system
+     * @param cs
+     *            the crypto service for the table
+     * @param file
+     *            the file to import
+     * @param failurePath
+     *            the directory for files which fail to import
+     * @param time
+     *            the timestamp to set on every key, or a negative value to keep the timestamps from the file
+     * @throws IOException
+     *             if the file could not be copied to the failure directory or removed
+     */
+    private static void importFile(InMemoryTable table, FileSystem fs, CryptoService cs, Path file, Path failurePath, long time) throws IOException {
+        try {
+            loadFile(table, fs, cs, file, time);
+        } catch (Exception e) {
+            FSDataOutputStream failureWriter = null;
+            DataInputStream failureReader = null;
             try {
-                CryptoService cs = CryptoFactoryLoader.getServiceForClient(CryptoEnvironment.Scope.TABLE, table.settings);
-                FileSKVIterator importIterator = FileOperations.getInstance().newReaderBuilder()
-                                .forFile(importStatus.getPath().toString(), fs, fs.getConf(), cs).withTableConfiguration(DefaultConfiguration.getInstance())
-                                .seekToBeginning().build();
-                while (importIterator.hasTop()) {
-                    Key key = importIterator.getTopKey();
-                    Value value = importIterator.getTopValue();
-                    if (setTime) {
-                        key.setTimestamp(time);
-                    }
-                    Mutation mutation = new Mutation(key.getRow());
-                    if (!key.isDeleted()) {
-                        mutation.put(key.getColumnFamily(), key.getColumnQualifier(), new ColumnVisibility(key.getColumnVisibilityData().toArray()),
-                                        key.getTimestamp(), value);
-                    } else {
-                        mutation.putDelete(key.getColumnFamily(), key.getColumnQualifier(), new ColumnVisibility(key.getColumnVisibilityData().toArray()),
-                                        key.getTimestamp());
-                    }
-                    table.addMutation(mutation);
-                    importIterator.next();
+                failureWriter = fs.create(failurePath.suffix("/" + file.getName()));
+                failureReader = fs.open(file);
+                int read = 0;
+                byte[] buffer = new byte[1024];
+                while (-1 != (read = failureReader.read(buffer))) {
+                    failureWriter.write(buffer, 0, read);
                 }
-            } catch (Exception e) {
-                FSDataOutputStream failureWriter = null;
-                DataInputStream failureReader = null;
-                try {
-                    failureWriter = fs.create(failurePath.suffix("/" + importStatus.getPath().getName()));
-                    failureReader = fs.open(importStatus.getPath());
-                    int read = 0;
-                    byte[] buffer = new byte[1024];
-                    while (-1 != (read = failureReader.read(buffer))) {
-                        failureWriter.write(buffer, 0, read);
-                    }
-                } finally {
-                    if (failureReader != null)
-                        failureReader.close();
-                    if (failureWriter != null)
-                        failureWriter.close();
+            } finally {
+                if (failureReader != null)
+                    failureReader.close();
+                if (failureWriter != null)
+                    failureWriter.close();
+            }
+        }
+        fs.delete(file, true);
+    }
+    
+    /**
+     * Read a sorted file and insert its entries directly into the table, in batches, without building mutations.
+     * 
+     * @param table
+     *            the table to load into
+     * @param fs
+     *            the file system
+     * @param cs
+     *            the crypto service for the table
+     * @param file
+     *            the file to load
+     * @param time
+     *            the timestamp to set on every key, or a negative value to keep the timestamps from the file
+     * @throws IOException
+     *             if the file could not be read
+     */
+    static void loadFile(InMemoryTable table, FileSystem fs, CryptoService cs, Path file, long time) throws IOException {
+        FileSKVIterator importIterator = FileOperations.getInstance().newReaderBuilder().forFile(file.toString(), fs, fs.getConf(), cs)
+                        .withTableConfiguration(DefaultConfiguration.getInstance()).seekToBeginning().build();
+        try {
+            List<Key> keys = new ArrayList<>(BULK_LOAD_BATCH_SIZE);
+            List<Value> values = new ArrayList<>(BULK_LOAD_BATCH_SIZE);
+            while (importIterator.hasTop()) {
+                // the reader reuses its key and value for every entry
+                Key key = new Key(importIterator.getTopKey());
+                if (time >= 0) {
+                    key.setTimestamp(time);
                 }
+                keys.add(key);
+                values.add(new Value(importIterator.getTopValue()));
+                if (keys.size() == BULK_LOAD_BATCH_SIZE) {
+                    table.addSorted(keys, values);
+                    keys.clear();
+                    values.clear();
+                }
+                importIterator.next();
             }
-            fs.delete(importStatus.getPath(), true);
+            table.addSorted(keys, values);
+        } finally {
+            importIterator.close();
         }
     }
     
@@ -385,13 +632,7 @@ class InMemoryTableOperations extends TableOperationsHelper {
     public Map<String,String> tableIdMap() {
         Map<String,String> result = new HashMap<>();
         for (Entry<String,InMemoryTable> entry : acu.tables.entrySet()) {
-            String table = entry.getKey();
-            if (RootTable.NAME.equals(table))
-                result.put(table, RootTable.ID.canonical());
-            else if (MetadataTable.NAME.equals(table))
-                result.put(table, MetadataTable.ID.canonical());
-            else
-                result.put(table, entry.getValue().getTableId());
+            result.put(entry.getKey(), InMemoryAccumulo.getTableId(entry.getKey(), entry.getValue()));
         }
         return result;
     }
@@ -416,17 +657,23 @@ class InMemoryTableOperations extends TableOperationsHelper {
     public void deleteRows(String tableName, Text start, Text end) throws AccumuloException, AccumuloSecurityException, TableNotFoundException {
         if (!exists(tableName))
             throw new TableNotFoundException(tableName, tableName, "");
-        InMemoryTable t = acu.tables.get(tableName);
         Text startText = start != null ? new Text(start) : new Text();
-        if (startText.getLength() == 0 && end == null) {
-            t.table.clear();
-            return;
+        try {
+            if (startText.getLength() == 0 && end == null) {
+                acu.deleteRows(tableName, null, null);
+                return;
+            }
+            startText.append(ZERO, 0, 1);
+            Key endKey = null;
+            if (end != null) {
+                Text endText = new Text(end);
+                endText.append(ZERO, 0, 1);
+                endKey = new Key(endText);
+            }
+            acu.deleteRows(tableName, new Key(startText), endKey);
+        } catch (IOException e) {
+            throw new AccumuloException(e);
         }
-        Text endText = end != null ? new Text(end) : new Text(t.table.lastKey().getRow().getBytes());
-        startText.append(ZERO, 0, 1);
-        endText.append(ZERO, 0, 1);
-        Set<Key> keep = new TreeSet<>(t.table.subMap(new Key(startText), new Key(endText)).keySet());
-        t.table.keySet().removeAll(keep);
     }
     
     @Override
@@ -434,6 +681,7 @@ class InMemoryTableOperations extends TableOperationsHelper {
                     throws AccumuloSecurityException, TableNotFoundException, AccumuloException {
         if (!exists(tableName))
             throw new TableNotFoundException(tableName, tableName, "");
+        compact(tableName);
     }
     
     @Override
@@ -444,6 +692,7 @@ class InMemoryTableOperations extends TableOperationsHelper {
         
         if (iterators != null && iterators.size() > 0)
             throw new UnsupportedOperationException();
+        compact(tableName);
     }
     
     @Override
@@ -453,6 +702,7 @@ class InMemoryTableOperations extends TableOperationsHelper {
         
         if (config.getIterators().size() > 0 || config.getCompactionStrategy() != null)
             throw new UnsupportedOperationException("InMemory does not support iterators or compaction strategies for compactions");
+        compact(tableName);
     }
     
     @Override
@@ -477,6 +727,7 @@ class InMemoryTableOperations extends TableOperationsHelper {
     public void flush(String tableName, Text start, Text end, boolean wait) throws AccumuloException, AccumuloSecurityException, TableNotFoundException {
         if (!exists(tableName))
             throw new TableNotFoundException(tableName, tableName, "");
+        flush(tableName);
     }
     
     @Override
@@ -491,23 +742,40 @@ class InMemoryTableOperations extends TableOperationsHelper {
     
     @Override
     public void importTable(String tableName, String exportDir) throws TableExistsException, AccumuloException, AccumuloSecurityException {
-        throw new UnsupportedOperationException();
+        importTable(tableName, Collections.singleton(exportDir), ImportConfiguration.empty());
     }
     
     @Override
     public void importTable(String tableName, Set<String> importDirs, ImportConfiguration ic)
                     throws TableExistsException, AccumuloException, AccumuloSecurityException {
-        throw new UnsupportedOperationException();
+        checkArgument(importDirs != null && !importDirs.isEmpty(), "importDirs is empty");
+        String namespace = TableNameUtil.qualify(tableName).getFirst();
+        Validators.NEW_TABLE_NAME.validate(tableName);
+        if (exists(tableName))
+            throw new TableExistsException(null, tableName, "");
+        checkArgument(namespaceExists(namespace), "Namespace (" + namespace + ") does not exist, create it first");
+        try {
+            InMemorySnapshot.importTable(acu, username, tableName, importDirs);
+        } catch (IOException e) {
+            throw new AccumuloException("Unable to import table " + tableName, e);
+        }
     }
     
     public void importTable(String tableName, String importDir, boolean keepMappings, boolean skipOnline)
                     throws TableExistsException, AccumuloException, AccumuloSecurityException {
-        throw new UnsupportedOperationException();
+        importTable(tableName, importDir);
     }
     
     @Override
     public void exportTable(String tableName, String exportDir) throws TableNotFoundException, AccumuloException, AccumuloSecurityException {
-        throw new UnsupportedOperationException();
+        InMemoryTable table = acu.tables.get(tableName);
+        if (table == null)
+            throw new TableNotFoundException(tableName, tableName, "");
+        try {
+            InMemorySnapshot.exportTable(acu, table, new Path(exportDir));
+        } catch (IOException e) {
+            throw new AccumuloException("Unable to export table " + tableName, e);
+        }
     }
     
     @Override
@@ -525,24 +793,52 @@ class InMemoryTableOperations extends TableOperationsHelper {
     @Override
     public void setSamplerConfiguration(String tableName, SamplerConfiguration samplerConfiguration)
                     throws TableNotFoundException, AccumuloException, AccumuloSecurityException {
-        throw new UnsupportedOperationException();
+        InMemoryTable t = acu.tables.get(tableName);
+        if (t == null)
+            throw new TableNotFoundException(tableName, tableName, "");
+        synchronized (t.settings) {
+            t.settings.keySet().removeIf(InMemoryTableOperations::isSamplerProperty);
+            t.settings.putAll(new SamplerConfigurationImpl(samplerConfiguration).toTablePropertiesMap());
+            configureSampler(t);
+        }
     }
     
     @Override
     public void clearSamplerConfiguration(String tableName) throws TableNotFoundException, AccumuloException, AccumuloSecurityException {
-        throw new UnsupportedOperationException();
+        InMemoryTable t = acu.tables.get(tableName);
+        if (t == null)
+            throw new TableNotFoundException(tableName, tableName, "");
+        synchronized (t.settings) {
+            t.settings.keySet().removeIf(InMemoryTableOperations::isSamplerProperty);
+            configureSampler(t);
+        }
+    }
+    
+    private static void configureSampler(InMemoryTable t) throws AccumuloException {
+        t.propertiesChanged();
+        try {
+            t.configureSampler();
+        } catch (IOException | RuntimeException e) {
+            throw new AccumuloException("Unable to configure the sampler", e);
+        }
     }
     
     @Override
     public SamplerConfiguration getSamplerConfiguration(String tableName) throws TableNotFoundException, AccumuloException, AccumuloSecurityException {
-        throw new UnsupportedOperationException();
+        InMemoryTable t = acu.tables.get(tableName);
+        if (t == null)
+            throw new TableNotFoundException(tableName, tableName, "");
+        return t.getSamplerConfiguration();
     }
     
     @Override
     public Locations locate(String tableName, Collection<Range> ranges) throws AccumuloException, AccumuloSecurityException, TableNotFoundException {
+        if (!exists(tableName))
+            throw new TableNotFoundException(tableName, tableName, "");
         Map<String,Map<KeyExtent,List<Range>>> binnedRanges = new HashMap<>();
-        InMemoryTabletLocator locator = new InMemoryTabletLocator();
-        List<Range> ignore = locator.binRanges(null, new ArrayList<>(ranges), binnedRanges);
+        InMemoryTabletLocator locator = new InMemoryTabletLocator(acu.tables.get(tableName).getTableId(), new TreeSet<>(acu.getSplits(tableName)),
+                        acu.getTabletServers());
+        locator.binRanges(null, new ArrayList<>(ranges), binnedRanges);
         return new LocationsImpl(binnedRanges);
     }
     
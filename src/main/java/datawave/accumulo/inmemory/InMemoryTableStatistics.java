@@ -0,0 +1,318 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.accumulo.core.data.ArrayByteSequence;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Range;
+import org.apache.hadoop.io.Text;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Approximate statistics about the entries of a table, updated as entries are added:
+ * <ul>
+ * <li>the number of entries</li>
+ * <li>a HyperLogLog sketch of the distinct rows of each column family</li>
+ * <li>a count-min sketch of column qualifier frequencies, along with the most frequent qualifiers seen</li>
+ * <li>a uniform reservoir sample of the rows of all entries, used to estimate how entries are distributed over row ranges and splits</li>
+ * </ul>
+ * Deletes are not subtracted; the statistics are rebuilt from the table data when it is compacted or rows are deleted.
+ */
+final class InMemoryTableStatistics {
+    
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final int HLL_PRECISION = 12;
+    private static final int CMS_DEPTH = 4;
+    private static final int CMS_WIDTH = 2048;
+    private static final int FREQUENT_QUALIFIERS = 64;
+    private static final int RESERVOIR_SIZE = 4096;
+    
+    private final LongAdder entries = new LongAdder();
+    private final Map<ByteSequence,HyperLogLog> distinctRows = new ConcurrentHashMap<>();
+    private final AtomicLongArray qualifierCounts = new AtomicLongArray(CMS_DEPTH * CMS_WIDTH);
+    private final Map<ByteSequence,Long> frequentQualifiers = new ConcurrentHashMap<>();
+    private volatile long frequentThreshold = 0;
+    private final AtomicReferenceArray<byte[]> rowReservoir = new AtomicReferenceArray<>(RESERVOIR_SIZE);
+    private final AtomicLong rowsSeen = new AtomicLong();
+    
+    /**
+     * Account for a new entry.
+     * 
+     * @param key
+     *            the key of the entry
+     */
+    void update(Key key) {
+        entries.increment();
+        ByteSequence row = key.getRowData();
+        long rowHash = HASH.hashBytes(row.getBackingArray(), row.offset(), row.length()).asLong();
+        
+        ByteSequence cf = key.getColumnFamilyData();
+        HyperLogLog hll = distinctRows.get(cf);
+        if (hll == null)
+            hll = distinctRows.computeIfAbsent(new ArrayByteSequence(cf.toArray()), k -> new HyperLogLog(HLL_PRECISION));
+        hll.add(rowHash);
+        
+        ByteSequence cq = key.getColumnQualifierData();
+        long cqHash = HASH.hashBytes(cq.getBackingArray(), cq.offset(), cq.length()).asLong();
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < CMS_DEPTH; i++) {
+            estimate = Math.min(estimate, qualifierCounts.incrementAndGet(cmsIndex(cqHash, i)));
+        }
+        if (estimate > frequentThreshold || frequentQualifiers.size() < FREQUENT_QUALIFIERS)
+            trackFrequent(cq, estimate);
+        
+        long seen = rowsSeen.incrementAndGet();
+        if (seen <= RESERVOIR_SIZE) {
+            rowReservoir.set((int) seen - 1, row.toArray());
+        } else {
+            long slot = ThreadLocalRandom.current().nextLong(seen);
+            if (slot < RESERVOIR_SIZE)
+                rowReservoir.set((int) slot, row.toArray());
+        }
+    }
+    
+    private static int cmsIndex(long hash, int depth) {
+        int h = (int) hash + depth * (int) (hash >>> 32);
+        return depth * CMS_WIDTH + ((h & Integer.MAX_VALUE) % CMS_WIDTH);
+    }
+    
+    private synchronized void trackFrequent(ByteSequence cq, long estimate) {
+        ArrayByteSequence copy = new ArrayByteSequence(cq.toArray());
+        frequentQualifiers.put(copy, estimate);
+        if (frequentQualifiers.size() > 2 * FREQUENT_QUALIFIERS) {
+            List<Entry<ByteSequence,Long>> sorted = new ArrayList<>(frequentQualifiers.entrySet());
+            sorted.sort(Entry.<ByteSequence,Long> comparingByValue().reversed());
+            for (Entry<ByteSequence,Long> entry : sorted.subList(FREQUENT_QUALIFIERS, sorted.size())) {
+                frequentQualifiers.remove(entry.getKey());
+            }
+            frequentThreshold = sorted.get(FREQUENT_QUALIFIERS - 1).getValue();
+        }
+    }
+    
+    /**
+     * @return the number of entries added
+     */
+    long getEntryCount() {
+        return entries.sum();
+    }
+    
+    /**
+     * @return the estimated number of distinct rows holding the given column family
+     */
+    long estimateDistinctRows(Text columnFamily) {
+        HyperLogLog hll = distinctRows.get(new ArrayByteSequence(columnFamily.getBytes(), 0, columnFamily.getLength()));
+        return hll == null ? 0 : hll.estimate();
+    }
+    
+    /**
+     * @return the estimated number of distinct rows of each column family
+     */
+    Map<Text,Long> estimateDistinctRowsByFamily() {
+        Map<Text,Long> estimates = new HashMap<>();
+        for (Entry<ByteSequence,HyperLogLog> entry : distinctRows.entrySet()) {
+            estimates.put(new Text(entry.getKey().toArray()), entry.getValue().estimate());
+        }
+        return estimates;
+    }
+    
+    /**
+     * @return the estimated number of entries with the given column qualifier; never an underestimate
+     */
+    long estimateQualifierFrequency(Text columnQualifier) {
+        long hash = HASH.hashBytes(columnQualifier.getBytes(), 0, columnQualifier.getLength()).asLong();
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < CMS_DEPTH; i++) {
+            estimate = Math.min(estimate, qualifierCounts.get(cmsIndex(hash, i)));
+        }
+        return estimate;
+    }
+    
+    /**
+     * @return up to max of the most frequent column qualifiers with their estimated frequencies, most frequent first
+     */
+    Map<Text,Long> getFrequentQualifiers(int max) {
+        List<ByteSequence> candidates = new ArrayList<>(frequentQualifiers.keySet());
+        Map<ByteSequence,Long> estimates = new HashMap<>();
+        for (ByteSequence cq : candidates) {
+            estimates.put(cq, estimateQualifierFrequency(new Text(cq.toArray())));
+        }
+        candidates.sort(Comparator.comparing(estimates::get, Comparator.reverseOrder()));
+        Map<Text,Long> frequent = new LinkedHashMap<>();
+        for (ByteSequence cq : candidates.subList(0, Math.min(max, candidates.size()))) {
+            frequent.put(new Text(cq.toArray()), estimates.get(cq));
+        }
+        return frequent;
+    }
+    
+    /**
+     * @return the sampled rows, sorted
+     */
+    List<Text> getSampledRows() {
+        List<Text> rows = new ArrayList<>();
+        for (int i = 0; i < RESERVOIR_SIZE; i++) {
+            byte[] row = rowReservoir.get(i);
+            if (row != null)
+                rows.add(new Text(row));
+        }
+        rows.sort(null);
+        return rows;
+    }
+    
+    /**
+     * @return the estimated number of entries whose row falls in the given range
+     */
+    long estimateEntries(Range range) {
+        List<Text> rows = getSampledRows();
+        if (rows.isEmpty())
+            return 0;
+        long inRange = rows.stream().filter(row -> range.contains(new Key(row))).count();
+        return Math.round((double) getEntryCount() * inRange / rows.size());
+    }
+    
+    /**
+     * Estimate the number of entries in each tablet of a table with the given splits.
+     * 
+     * @param splits
+     *            the sorted split points of the table
+     * @return the estimated entry count for each tablet, keyed by the tablet's range, in order
+     */
+    Map<Range,Long> estimateSplitEntries(Collection<Text> splits) {
+        List<Text> rows = getSampledRows();
+        long total = getEntryCount();
+        Map<Range,Long> counts = new LinkedHashMap<>();
+        Text prev = null;
+        int index = 0;
+        List<Text> ends = new ArrayList<>(splits);
+        ends.add(null);
+        for (Text end : ends) {
+            int count = 0;
+            while (index < rows.size() && (end == null || rows.get(index).compareTo(end) <= 0)) {
+                count++;
+                index++;
+            }
+            long estimate = rows.isEmpty() ? 0 : Math.round((double) total * count / rows.size());
+            counts.put(new Range(prev, false, end, true), estimate);
+            prev = end;
+        }
+        return counts;
+    }
+    
+    /**
+     * Divide a range into up to maxSplits ranges holding roughly equal numbers of entries, cutting at sampled rows.
+     * 
+     * @param range
+     *            the range to divide
+     * @param maxSplits
+     *            the maximum number of ranges to return
+     * @return the ranges, in order
+     */
+    List<Range> splitRange(Range range, int maxSplits) {
+        List<Text> cuts = new ArrayList<>();
+        for (Text row : getSampledRows()) {
+            Key rowKey = new Key(row);
+            if (range.contains(rowKey) && (range.getStartKey() == null || rowKey.compareTo(range.getStartKey()) > 0)
+                            && (cuts.isEmpty() || !cuts.get(cuts.size() - 1).equals(row)))
+                cuts.add(row);
+        }
+        List<Range> ranges = new ArrayList<>();
+        if (maxSplits <= 1 || cuts.isEmpty()) {
+            ranges.add(range);
+            return ranges;
+        }
+        int pieces = Math.min(maxSplits, cuts.size() + 1);
+        Key start = range.getStartKey();
+        boolean startInclusive = range.isStartKeyInclusive();
+        for (int i = 1; i < pieces; i++) {
+            Key cut = new Key(cuts.get(i * cuts.size() / pieces));
+            if (start != null && cut.compareTo(start) <= 0)
+                continue;
+            ranges.add(new Range(start, startInclusive, cut, false));
+            start = cut;
+            startInclusive = true;
+        }
+        ranges.add(new Range(start, startInclusive, range.getEndKey(), range.isEndKeyInclusive()));
+        return ranges;
+    }
+    
+    /**
+     * HyperLogLog cardinality sketch with lock-free register updates.
+     */
+    static final class HyperLogLog {
+        private final int precision;
+        private final AtomicIntegerArray registers;
+        
+        HyperLogLog(int precision) {
+            this.precision = precision;
+            this.registers = new AtomicIntegerArray(1 << precision);
+        }
+        
+        void add(long hash) {
+            int index = (int) (hash >>> (64 - precision));
+            int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+            int current = registers.get(index);
+            while (rank > current && !registers.compareAndSet(index, current, rank)) {
+                current = registers.get(index);
+            }
+        }
+        
+        void merge(HyperLogLog other) {
+            for (int i = 0; i < registers.length(); i++) {
+                int rank = other.registers.get(i);
+                int current = registers.get(i);
+                while (rank > current && !registers.compareAndSet(i, current, rank)) {
+                    current = registers.get(i);
+                }
+            }
+        }
+        
+        long estimate() {
+            int m = registers.length();
+            double sum = 0;
+            int zeros = 0;
+            for (int i = 0; i < m; i++) {
+                int r = registers.get(i);
+                sum += Math.scalb(1.0, -r);
+                if (r == 0)
+                    zeros++;
+            }
+            double alpha = 0.7213 / (1 + 1.079 / m);
+            double estimate = alpha * m * m / sum;
+            if (estimate <= 2.5 * m && zeros > 0)
+                estimate = m * Math.log((double) m / zeros);
+            return Math.round(estimate);
+        }
+    }
+}
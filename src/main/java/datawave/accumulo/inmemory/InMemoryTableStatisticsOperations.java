@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.util.Map;
+
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.client.admin.TableOperations;
+import org.apache.accumulo.core.data.Range;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Approximate statistics about the data in a table, for query planning without scanning. The statistics are maintained as data is written and rebuilt when a
+ * table is compacted or rows are deleted. The {@link TableOperations} of an in-memory instance implement this interface.
+ */
+public interface InMemoryTableStatisticsOperations {
+    
+    /**
+     * @param tableName
+     *            the table
+     * @return the number of entries written to the table, including older versions of entries and entries that have been deleted since the statistics were
+     *         last rebuilt
+     * @throws TableNotFoundException
+     *             if the table does not exist
+     */
+    long getEntryCount(String tableName) throws TableNotFoundException;
+    
+    /**
+     * @param tableName
+     *            the table
+     * @param range
+     *            the range
+     * @return the estimated number of entries in the range
+     * @throws TableNotFoundException
+     *             if the table does not exist
+     */
+    long estimateEntries(String tableName, Range range) throws TableNotFoundException;
+    
+    /**
+     * @param tableName
+     *            the table
+     * @param columnFamily
+     *            the column family
+     * @return the estimated number of distinct rows with entries in the column family
+     * @throws TableNotFoundException
+     *             if the table does not exist
+     */
+    long estimateDistinctRows(String tableName, Text columnFamily) throws TableNotFoundException;
+    
+    /**
+     * @param tableName
+     *            the table
+     * @return the estimated number of distinct rows of each column family in the table
+     * @throws TableNotFoundException
+     *             if the table does not exist
+     */
+    Map<Text,Long> estimateDistinctRowsByFamily(String tableName) throws TableNotFoundException;
+    
+    /**
+     * @param tableName
+     *            the table
+     * @param columnQualifier
+     *            the column qualifier
+     * @return the estimated number of entries with the column qualifier; the estimate may be high but is never low
+     * @throws TableNotFoundException
+     *             if the table does not exist
+     */
+    long estimateQualifierFrequency(String tableName, Text columnQualifier) throws TableNotFoundException;
+    
+    /**
+     * @param tableName
+     *            the table
+     * @param max
+     *            the maximum number of qualifiers to return
+     * @return the most frequent column qualifiers in the table with their estimated frequencies, most frequent first
+     * @throws TableNotFoundException
+     *             if the table does not exist
+     */
+    Map<Text,Long> getFrequentQualifiers(String tableName, int max) throws TableNotFoundException;
+    
+    /**
+     * @param tableName
+     *            the table
+     * @return the estimated number of entries in each tablet of the table, keyed by the tablet's range, in order
+     * @throws TableNotFoundException
+     *             if the table does not exist
+     */
+    Map<Range,Long> getSplitEntryCounts(String tableName) throws TableNotFoundException;
+}
@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+
+/**
+ * A local, segmented write-ahead log of mutations and row deletions.
+ * <p>
+ * Each record holds its length, a CRC32 of its contents, its position, the record type and the id of the table it applies to, followed by either the time
+ * assigned to a mutation and the serialized mutation, or the bounds of a row deletion. Positions increase with every append, across log files and reopens, so
+ * that a table can record the position up to which its segments hold the logged changes. Tables are identified by id rather than name so that renames do not
+ * affect replay. Appends are collected in memory and written with a single write and sync by whichever thread calls {@link #sync()} first, so that concurrent
+ * writers share the cost of the sync (group commit). Log files are named with a sequence number and rolled once they reach {@link #MAX_FILE_SIZE};
+ * {@link #roll()} and {@link #deleteBefore(long)} allow the log to be truncated once its contents have been captured in a snapshot.
+ */
+final class InMemoryWriteAheadLog implements AutoCloseable {
+    
+    static final String PREFIX = "wal-";
+    static final String SUFFIX = ".log";
+    
+    private static final long MAX_FILE_SIZE = 64L << 20;
+    private static final int MAX_BUFFER_SIZE = 1 << 20;
+    
+    private static final byte MUTATION = 1;
+    private static final byte DELETE_ROWS = 2;
+    
+    /**
+     * Receives the records read from the log during replay.
+     */
+    interface Replay {
+        void mutation(long position, String tableId, long time, Mutation m) throws IOException;
+        
+        void deleteRows(long position, String tableId, Key start, Key end) throws IOException;
+    }
+    
+    private final Path dir;
+    private final Object syncLock = new Object();
+    
+    // guarded by this
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private long appended = 0;
+    private long position;
+    
+    // guarded by syncLock
+    private FileChannel channel;
+    private long seq;
+    private long synced = 0;
+    
+    private InMemoryWriteAheadLog(Path dir, long seq, long position) throws IOException {
+        this.dir = dir;
+        this.seq = seq;
+        this.position = position;
+        this.channel = openFile(seq);
+    }
+    
+    /**
+     * Replay all existing log files in the given directory, in order, then open a new log file for appends. A torn or corrupt record ends the replay of the
+     * file it is in.
+     * 
+     * @param dir
+     *            the log directory
+     * @param replay
+     *            receives each logged record
+     * @param minPosition
+     *            a position that new records must be appended after, in addition to those of the replayed records
+     * @return the log
+     * @throws IOException
+     *             if the log could not be read or opened, or a record could not be replayed
+     */
+    static InMemoryWriteAheadLog open(Path dir, Replay replay, long minPosition) throws IOException {
+        Files.createDirectories(dir);
+        List<Long> existing = listFiles(dir);
+        long position = minPosition;
+        for (long fileSeq : existing) {
+            position = Math.max(position, replayFile(dir.resolve(fileName(fileSeq)), replay));
+        }
+        return new InMemoryWriteAheadLog(dir, existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1, position);
+    }
+    
+    /**
+     * Append a mutation to the log. The mutation is durable once a later call to {@link #sync()} returns.
+     * 
+     * @param tableId
+     *            the id of the table the mutation is applied to
+     * @param time
+     *            the time assigned to entries without a timestamp
+     * @param m
+     *            the mutation
+     * @return the position of the record
+     * @throws IOException
+     *             if buffered records could not be written
+     */
+    long append(String tableId, long time, Mutation m) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeLong(0);
+        out.writeByte(MUTATION);
+        out.writeUTF(tableId);
+        out.writeLong(time);
+        m.write(out);
+        out.flush();
+        return append(record.toByteArray());
+    }
+    
+    /**
+     * Append a row deletion to the log. The deletion is durable once a later call to {@link #sync()} returns.
+     * 
+     * @param tableId
+     *            the id of the table the rows are deleted from
+     * @param start
+     *            the first key to remove, or null to start at the beginning of the table
+     * @param end
+     *            the key after the last key to remove, or null to continue to the end of the table
+     * @return the position of the record
+     * @throws IOException
+     *             if buffered records could not be written
+     */
+    long appendDeleteRows(String tableId, Key start, Key end) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeLong(0);
+        out.writeByte(DELETE_ROWS);
+        out.writeUTF(tableId);
+        writeKey(out, start);
+        writeKey(out, end);
+        out.flush();
+        return append(record.toByteArray());
+    }
+    
+    /**
+     * Assign the record the next position, which takes the place of its first eight bytes, and buffer it.
+     */
+    private long append(byte[] bytes) throws IOException {
+        boolean full;
+        long recordPosition;
+        synchronized (this) {
+            recordPosition = ++position;
+            ByteBuffer.wrap(bytes).putLong(0, recordPosition);
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            DataOutputStream buf = new DataOutputStream(buffer);
+            buf.writeInt(bytes.length);
+            buf.writeInt((int) crc.getValue());
+            buf.write(bytes);
+            appended++;
+            full = buffer.size() >= MAX_BUFFER_SIZE;
+        }
+        if (full)
+            write(false);
+        return recordPosition;
+    }
+    
+    /**
+     * Make all mutations appended so far durable. If another thread is already syncing, this waits for it and then syncs whatever was appended in the meantime
+     * in one write.
+     * 
+     * @throws IOException
+     *             if the log could not be written
+     */
+    void sync() throws IOException {
+        long target;
+        synchronized (this) {
+            target = appended;
+        }
+        synchronized (syncLock) {
+            if (synced >= target)
+                return;
+            write(true);
+        }
+    }
+    
+    private void write(boolean force) throws IOException {
+        synchronized (syncLock) {
+            byte[] data;
+            long upTo;
+            synchronized (this) {
+                data = buffer.toByteArray();
+                buffer = new ByteArrayOutputStream();
+                upTo = appended;
+            }
+            ByteBuffer bb = ByteBuffer.wrap(data);
+            while (bb.hasRemaining()) {
+                channel.write(bb);
+            }
+            if (force) {
+                channel.force(false);
+                synced = upTo;
+            }
+            if (channel.size() >= MAX_FILE_SIZE)
+                rollFile();
+        }
+    }
+    
+    /**
+     * Sync the log and start a new log file.
+     * 
+     * @return the sequence number of the new log file; all earlier files hold only mutations appended before this call
+     * @throws IOException
+     *             if the log could not be synced or the new file could not be created
+     */
+    long roll() throws IOException {
+        synchronized (syncLock) {
+            write(true);
+            rollFile();
+            return seq;
+        }
+    }
+    
+    private void rollFile() throws IOException {
+        channel.force(false);
+        channel.close();
+        channel = openFile(++seq);
+    }
+    
+    /**
+     * Delete all log files with a sequence number lower than the given one.
+     * 
+     * @param fileSeq
+     *            the first sequence number to keep
+     * @throws IOException
+     *             if a file could not be deleted
+     */
+    void deleteBefore(long fileSeq) throws IOException {
+        for (long existing : listFiles(dir)) {
+            if (existing < fileSeq)
+                Files.deleteIfExists(dir.resolve(fileName(existing)));
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            write(true);
+            channel.close();
+        }
+    }
+    
+    private FileChannel openFile(long fileSeq) throws IOException {
+        return FileChannel.open(dir.resolve(fileName(fileSeq)), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+    
+    private static String fileName(long fileSeq) {
+        return String.format("%s%08d%s", PREFIX, fileSeq, SUFFIX);
+    }
+    
+    private static List<Long> listFiles(Path dir) throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    seqs.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(seqs);
+        return seqs;
+    }
+    
+    /**
+     * @return the highest position replayed, or zero if the file holds no records
+     */
+    private static long replayFile(Path file, Replay replay) throws IOException {
+        long position = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                byte[] bytes;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 0 || length > MAX_FILE_SIZE)
+                        return position;
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                    CRC32 crc = new CRC32();
+                    crc.update(bytes);
+                    if ((int) crc.getValue() != checksum)
+                        return position;
+                } catch (EOFException e) {
+                    return position;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+                position = record.readLong();
+                byte type = record.readByte();
+                String tableId = record.readUTF();
+                switch (type) {
+                    case MUTATION:
+                        long time = record.readLong();
+                        Mutation m = new Mutation();
+                        m.readFields(record);
+                        replay.mutation(position, tableId, time, m);
+                        break;
+                    case DELETE_ROWS:
+                        Key start = readKey(record);
+                        replay.deleteRows(position, tableId, start, readKey(record));
+                        break;
+                    default:
+                        throw new IOException("Unknown record type " + type + " in " + file);
+                }
+            }
+        }
+    }
+    
+    private static void writeKey(DataOutputStream out, Key key) throws IOException {
+        out.writeBoolean(key != null);
+        if (key != null)
+            key.write(out);
+    }
+    
+    private static Key readKey(DataInputStream in) throws IOException {
+        if (!in.readBoolean())
+            return null;
+        Key key = new Key();
+        key.readFields(in);
+        return key;
+    }
+}
@@ -16,45 +16,110 @@
  */
 package datawave.accumulo.inmemory.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
 
 import org.apache.accumulo.core.client.AccumuloException;
 import org.apache.accumulo.core.client.AccumuloSecurityException;
 import org.apache.accumulo.core.client.TableNotFoundException;
 import org.apache.accumulo.core.clientImpl.ClientContext;
 import org.apache.accumulo.core.clientImpl.TabletLocator;
+import org.apache.accumulo.core.data.Key;
 import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.PartialKey;
 import org.apache.accumulo.core.data.Range;
 import org.apache.accumulo.core.data.TableId;
 import org.apache.accumulo.core.dataImpl.KeyExtent;
 import org.apache.hadoop.io.Text;
 
+/**
+ * Locates the tablets of an in-memory table. There is one tablet per split of the table, and the tablets are assigned round-robin to a list of simulated
+ * tablet servers so that clients grouping work by tablet or by server see the same shape they would against a real instance.
+ */
 public class InMemoryTabletLocator extends TabletLocator {
+    private static final String SESSION = "5";
+    
+    private final TableId tableId;
+    private final List<Text> endRows;
+    private final List<String> servers;
+    
+    public InMemoryTabletLocator() {
+        this("", Collections.emptySortedSet(), Collections.singletonList(""));
+    }
+    
+    /**
+     * @param tableId
+     *            the id of the table
+     * @param splits
+     *            the splits of the table
+     * @param servers
+     *            the simulated tablet servers to assign tablets to
+     */
+    public InMemoryTabletLocator(String tableId, SortedSet<Text> splits, List<String> servers) {
+        if (servers.isEmpty())
+            throw new IllegalArgumentException("At least one tablet server is required");
+        this.tableId = TableId.of(tableId);
+        this.endRows = new ArrayList<>(splits);
+        this.servers = new ArrayList<>(servers);
+    }
+    
     @Override
     public TabletLocation locateTablet(ClientContext context, Text row, boolean skipRow, boolean retry)
                     throws AccumuloException, AccumuloSecurityException, TableNotFoundException {
-        throw new UnsupportedOperationException();
+        if (skipRow)
+            row = new Key(row).followingKey(PartialKey.ROW).getRow();
+        int tablet = getTablet(row);
+        return new TabletLocation(getExtent(tablet), getLocation(tablet), SESSION);
     }
     
     @Override
     public <T extends Mutation> void binMutations(ClientContext context, List<T> mutations, Map<String,TabletServerMutations<T>> binnedMutations,
                     List<T> failures) throws AccumuloException, AccumuloSecurityException, TableNotFoundException {
-        TabletServerMutations<T> tsm = new TabletServerMutations<>("5");
-        for (T m : mutations)
-            tsm.addMutation(new KeyExtent(TableId.of(""), new Text(), new Text()), m);
-        binnedMutations.put("", tsm);
+        for (T m : mutations) {
+            int tablet = getTablet(new Text(m.getRow()));
+            binnedMutations.computeIfAbsent(getLocation(tablet), k -> new TabletServerMutations<>(SESSION)).addMutation(getExtent(tablet), m);
+        }
     }
     
     @Override
     public List<Range> binRanges(ClientContext context, List<Range> ranges, Map<String,Map<KeyExtent,List<Range>>> binnedRanges)
                     throws AccumuloException, AccumuloSecurityException, TableNotFoundException {
-        binnedRanges.put("", Collections.singletonMap(new KeyExtent(TableId.of(""), null, null), ranges));
+        for (Range range : ranges) {
+            int tablet = range.getStartKey() == null ? 0 : getTablet(range.getStartKey().getRow());
+            while (true) {
+                binnedRanges.computeIfAbsent(getLocation(tablet), k -> new HashMap<>()).computeIfAbsent(getExtent(tablet), k -> new ArrayList<>()).add(range);
+                // stop at the last tablet, or once the range ends before the next tablet starts
+                if (tablet == endRows.size() || range.afterEndKey(new Key(endRows.get(tablet)).followingKey(PartialKey.ROW)))
+                    break;
+                tablet++;
+            }
+        }
         return Collections.emptyList();
     }
     
+    /**
+     * Returns the index of the tablet holding the row, which is the first tablet whose end row is not before it.
+     */
+    private int getTablet(Text row) {
+        int index = Collections.binarySearch(endRows, row);
+        return index >= 0 ? index : -index - 1;
+    }
+    
+    private KeyExtent getExtent(int tablet) {
+        Text prevEndRow = tablet == 0 ? null : endRows.get(tablet - 1);
+        Text endRow = tablet == endRows.size() ? null : endRows.get(tablet);
+        return new KeyExtent(tableId, endRow, prevEndRow);
+    }
+    
+    private String getLocation(int tablet) {
+        return servers.get(tablet % servers.size());
+    }
+    
     @Override
     public void invalidateCache(KeyExtent failedExtent) {}
     
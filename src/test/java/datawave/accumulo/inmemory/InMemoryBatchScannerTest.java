@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.apache.accumulo.core.client.AccumuloClient;
+import org.apache.accumulo.core.client.BatchScanner;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.iterators.IteratorEnvironment;
+import org.apache.accumulo.core.iterators.SortedKeyValueIterator;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+public class InMemoryBatchScannerTest {
+    
+    private AccumuloClient client;
+    private final List<Range> ranges = new ArrayList<>();
+    private final List<String> expected = new ArrayList<>();
+    
+    @BeforeEach
+    public void setup() throws Exception {
+        client = new InMemoryAccumuloClient("root", new InMemoryInstance());
+        client.tableOperations().create("test");
+        client.tableOperations().addSplits("test", new TreeSet<>(Arrays.asList(new Text("row030"), new Text("row060"))));
+        try (BatchWriter writer = client.createBatchWriter("test")) {
+            for (int i = 0; i < 100; i++) {
+                Mutation m = new Mutation(String.format("row%03d", i));
+                m.put("cf", "cq", "v" + i);
+                writer.addMutation(m);
+            }
+        }
+        // ranges a few rows apart, so that some are reached by stepping and some by seeking
+        for (int i = 0; i < 100; i += 7) {
+            String row = String.format("row%03d", i);
+            ranges.add(new Range(row, String.format("row%03d", i + 1)));
+            expected.add(row);
+            if (i + 1 < 100)
+                expected.add(String.format("row%03d", i + 1));
+        }
+    }
+    
+    @ParameterizedTest
+    @ValueSource(strings = {"0", "3", "100"})
+    public void testIteratorAndForEach(String skipEntries) throws Exception {
+        client.tableOperations().setProperty("test", InMemoryTable.BATCH_SCAN_SKIP_ENTRIES, skipEntries);
+        try (BatchScanner scanner = client.createBatchScanner("test", Authorizations.EMPTY)) {
+            scanner.setRanges(ranges);
+            
+            List<String> iterated = new ArrayList<>();
+            for (Entry<Key,Value> entry : scanner) {
+                iterated.add(entry.getKey().getRow().toString());
+            }
+            assertEquals(expected, iterated);
+            
+            List<String> pushed = new ArrayList<>();
+            scanner.forEach((key, value) -> pushed.add(key.getRow().toString()));
+            assertEquals(expected, pushed);
+        }
+    }
+    
+    @Test
+    public void testAggregate() throws Exception {
+        try (InMemoryBatchScanner scanner = (InMemoryBatchScanner) client.createBatchScanner("test", Authorizations.EMPTY)) {
+            scanner.setRanges(ranges);
+            
+            SortedMap<Text,InMemoryAggregation.Aggregate> byRow = scanner.aggregate(InMemoryAggregation.GroupBy.ROW);
+            List<String> rows = new ArrayList<>();
+            for (Entry<Text,InMemoryAggregation.Aggregate> entry : byRow.entrySet()) {
+                rows.add(entry.getKey().toString());
+                assertEquals(1, entry.getValue().getCount());
+            }
+            assertEquals(expected, rows);
+            assertEquals(expected.size(), scanner.aggregate(InMemoryAggregation.GroupBy.RANGE).get(new Text()).getCount());
+        }
+    }
+    
+    @Test
+    public void testInjectedIteratorsScanSequentially() throws Exception {
+        try (InMemoryBatchScanner scanner = (InMemoryBatchScanner) client.createBatchScanner("test", Authorizations.EMPTY)) {
+            scanner.setRanges(ranges);
+            scanner.addInjectedIterator(new SingleThreadIterator());
+            
+            assertEquals(expected.size(), scanner.aggregate(InMemoryAggregation.GroupBy.RANGE).get(new Text()).getCount());
+            assertEquals(expected, scanner.parallelStream().map(entry -> entry.getKey().getRow().toString()).collect(Collectors.toList()));
+        }
+    }
+    
+    /**
+     * Passes entries through, failing if used from more than one thread.
+     */
+    private static class SingleThreadIterator extends WrappingIterator {
+        
+        private final Thread owner = Thread.currentThread();
+        
+        private void check() {
+            if (Thread.currentThread() != owner)
+                throw new IllegalStateException("injected iterator used from " + Thread.currentThread());
+        }
+        
+        @Override
+        public void init(SortedKeyValueIterator<Key,Value> source, Map<String,String> options, IteratorEnvironment env) throws IOException {
+            check();
+            super.init(source, options, env);
+        }
+        
+        @Override
+        public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+            check();
+            super.seek(range, columnFamilies, inclusive);
+        }
+        
+        @Override
+        public void next() throws IOException {
+            check();
+            super.next();
+        }
+    }
+}
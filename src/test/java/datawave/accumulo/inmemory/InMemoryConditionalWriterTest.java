@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.accumulo.core.client.AccumuloClient;
+import org.apache.accumulo.core.client.ConditionalWriter;
+import org.apache.accumulo.core.client.ConditionalWriter.Status;
+import org.apache.accumulo.core.client.ConditionalWriterConfig;
+import org.apache.accumulo.core.client.IteratorSetting;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.data.ByteSequence;
+import org.apache.accumulo.core.data.Condition;
+import org.apache.accumulo.core.data.ConditionalMutation;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.iterators.WrappingIterator;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.core.security.ColumnVisibility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class InMemoryConditionalWriterTest {
+    
+    private static final Authorizations AUTHS = new Authorizations("a");
+    
+    @TempDir
+    Path dir;
+    
+    private InMemoryInstance instance;
+    private AccumuloClient client;
+    
+    @BeforeEach
+    public void setup() throws Exception {
+        instance = new InMemoryInstance();
+        client = new InMemoryAccumuloClient("root", instance);
+        client.securityOperations().changeUserAuthorizations("root", AUTHS);
+        client.tableOperations().create("test");
+    }
+    
+    @Test
+    public void testStatus() throws Exception {
+        try (ConditionalWriter writer = client.createConditionalWriter("test", new ConditionalWriterConfig().setAuthorizations(AUTHS))) {
+            ConditionalMutation absent = new ConditionalMutation("row", new Condition("cf", "cq"));
+            absent.put("cf", "cq", "v1");
+            assertEquals(Status.ACCEPTED, writer.write(absent).getStatus());
+            
+            ConditionalMutation stale = new ConditionalMutation("row", new Condition("cf", "cq").setValue("v0"));
+            stale.put("cf", "cq", "v2");
+            assertEquals(Status.REJECTED, writer.write(stale).getStatus());
+            
+            ConditionalMutation current = new ConditionalMutation("row", new Condition("cf", "cq").setValue("v1"));
+            current.put("cf", "cq", "v2");
+            assertEquals(Status.ACCEPTED, writer.write(current).getStatus());
+            
+            ConditionalMutation invisible = new ConditionalMutation("row", new Condition("cf", "cq").setVisibility(new ColumnVisibility("b")));
+            invisible.put("cf", "cq", "v3");
+            assertEquals(Status.INVISIBLE_VISIBILITY, writer.write(invisible).getStatus());
+        }
+        
+        try (Scanner scanner = client.createScanner("test", AUTHS)) {
+            assertEquals("v2", scanner.iterator().next().getValue().toString());
+        }
+    }
+    
+    @Test
+    public void testConcurrentCheckpoint() throws Exception {
+        instance.openWriteAheadLog(dir.resolve("wal").toString());
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                // hold the conditional mutation in its check until a batch write to the same row and a checkpoint are both waiting
+                ConditionalMutation cm = new ConditionalMutation("row",
+                                new Condition("cf", "cq").setIterators(new IteratorSetting(50, "block", BlockingIterator.class)));
+                cm.put("cf", "cq", "conditional");
+                Future<Status> conditional = executor.submit(() -> {
+                    try (ConditionalWriter writer = client.createConditionalWriter("test", new ConditionalWriterConfig().setAuthorizations(AUTHS))) {
+                        return writer.write(cm).getStatus();
+                    }
+                });
+                BlockingIterator.checking.await();
+                
+                Mutation m = new Mutation("row");
+                m.put("cf", "batch", "v");
+                Thread batch = new Thread(() -> instance.acu.addMutation("test", m));
+                batch.start();
+                awaitWaiting(batch);
+                Future<?> checkpoint = executor.submit(() -> {
+                    instance.checkpoint(dir.resolve("checkpoint").toString());
+                    return null;
+                });
+                Thread.sleep(100);
+                
+                BlockingIterator.release.countDown();
+                assertEquals(Status.ACCEPTED, conditional.get());
+                batch.join();
+                checkpoint.get();
+                instance.closeWriteAheadLog();
+            });
+        } finally {
+            BlockingIterator.release.countDown();
+            executor.shutdownNow();
+        }
+        
+        try (Scanner scanner = client.createScanner("test", AUTHS)) {
+            assertEquals(2, scanner.stream().count());
+        }
+    }
+    
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(10);
+        }
+    }
+    
+    /**
+     * Signals when a condition is being checked and waits to be released before checking it.
+     */
+    public static class BlockingIterator extends WrappingIterator {
+        static final CountDownLatch checking = new CountDownLatch(1);
+        static final CountDownLatch release = new CountDownLatch(1);
+        
+        @Override
+        public void seek(Range range, Collection<ByteSequence> columnFamilies, boolean inclusive) throws IOException {
+            checking.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            super.seek(range, columnFamilies, inclusive);
+        }
+    }
+}
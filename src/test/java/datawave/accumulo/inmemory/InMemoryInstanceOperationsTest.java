@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+
+import org.apache.accumulo.core.client.AccumuloClient;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.admin.ActiveScan;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Range;
+import org.apache.accumulo.core.data.TableId;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.dataImpl.KeyExtent;
+import org.apache.accumulo.core.dataImpl.TabletIdImpl;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
+import org.junit.jupiter.api.Test;
+
+public class InMemoryInstanceOperationsTest {
+    
+    @Test
+    public void testActiveScansByTabletServer() throws Exception {
+        AccumuloClient client = new InMemoryAccumuloClient("root", new InMemoryInstance());
+        client.instanceOperations().setProperty(InMemoryAccumulo.TABLET_SERVERS, "2");
+        client.tableOperations().create("test");
+        client.tableOperations().addSplits("test", new TreeSet<>(Arrays.asList(new Text("row030"), new Text("row060"))));
+        try (BatchWriter writer = client.createBatchWriter("test")) {
+            for (int i = 0; i < 100; i++) {
+                Mutation m = new Mutation(String.format("row%03d", i));
+                m.put("cf", "cq", "v" + i);
+                writer.addMutation(m);
+            }
+        }
+        List<String> servers = client.instanceOperations().getTabletServers();
+        String tableId = client.tableOperations().tableIdMap().get("test");
+        
+        // the second of the three tablets is assigned to the second server
+        try (Scanner scanner = client.createScanner("test", Authorizations.EMPTY)) {
+            scanner.setRange(new Range("row040", "row050"));
+            Iterator<Entry<Key,Value>> entries = scanner.iterator();
+            assertTrue(entries.hasNext());
+            
+            assertTrue(client.instanceOperations().getActiveScans(servers.get(0)).isEmpty());
+            List<ActiveScan> scans = client.instanceOperations().getActiveScans(servers.get(1));
+            assertEquals(1, scans.size());
+            assertEquals("test", scans.get(0).getTable());
+            assertEquals(new TabletIdImpl(new KeyExtent(TableId.of(tableId), new Text("row060"), new Text("row030"))), scans.get(0).getTablet());
+        }
+    }
+}
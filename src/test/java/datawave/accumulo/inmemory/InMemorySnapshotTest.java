@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+
+import org.apache.accumulo.core.client.AccumuloClient;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.admin.NewTableConfiguration;
+import org.apache.accumulo.core.client.sample.RowSampler;
+import org.apache.accumulo.core.client.sample.SamplerConfiguration;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.accumulo.core.security.ColumnVisibility;
+import org.apache.hadoop.io.Text;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class InMemorySnapshotTest {
+    
+    private static final Authorizations AUTHS = new Authorizations("a");
+    private static final SamplerConfiguration SAMPLER = new SamplerConfiguration(RowSampler.class.getName())
+                    .setOptions(Map.of("hasher", "murmur3_32", "modulus", "3"));
+    
+    @TempDir
+    Path dir;
+    
+    private InMemoryInstance instance;
+    private AccumuloClient client;
+    
+    @BeforeEach
+    public void setup() throws Exception {
+        instance = new InMemoryInstance();
+        client = new InMemoryAccumuloClient("root", instance);
+        client.securityOperations().changeUserAuthorizations("root", AUTHS);
+        client.tableOperations().create("source", new NewTableConfiguration().enableSampling(SAMPLER));
+        client.tableOperations().addSplits("source", new TreeSet<>(Collections.singleton(new Text("row10"))));
+        try (BatchWriter writer = client.createBatchWriter("source")) {
+            for (int i = 0; i < 20; i++) {
+                Mutation m = new Mutation(String.format("row%02d", i));
+                m.put("cf" + (i % 3), "cq" + i, new ColumnVisibility(i % 2 == 0 ? "a" : ""), "v" + i);
+                writer.addMutation(m);
+            }
+        }
+    }
+    
+    @Test
+    public void testExportImportTable() throws Exception {
+        String exportDir = dir.resolve("export").toString();
+        client.tableOperations().offline("source");
+        client.tableOperations().exportTable("source", exportDir);
+        client.tableOperations().importTable("copy", exportDir);
+        
+        assertEquals(read(client, "source"), read(client, "copy"));
+        assertEquals(readSample(client, "source"), readSample(client, "copy"));
+    }
+    
+    @Test
+    public void testExportImportSnapshot() throws Exception {
+        String snapshotDir = dir.resolve("snapshot").toString();
+        instance.acu.exportSnapshot(snapshotDir);
+        
+        InMemoryInstance restored = new InMemoryInstance();
+        restored.acu.importSnapshot(snapshotDir);
+        
+        AccumuloClient restoredClient = new InMemoryAccumuloClient("root", restored);
+        assertEquals(read(client, "source"), read(restoredClient, "source"));
+        assertEquals(readSample(client, "source"), readSample(restoredClient, "source"));
+    }
+    
+    private static List<String> read(AccumuloClient client, String table) throws Exception {
+        List<String> entries = new ArrayList<>();
+        try (Scanner scanner = client.createScanner(table, AUTHS)) {
+            for (Entry<Key,Value> entry : scanner) {
+                entries.add(entry.getKey() + " " + entry.getValue());
+            }
+        }
+        assertEquals(20, entries.size());
+        return entries;
+    }
+    
+    private static List<String> readSample(AccumuloClient client, String table) throws Exception {
+        assertEquals(SAMPLER, client.tableOperations().getSamplerConfiguration(table));
+        List<String> entries = new ArrayList<>();
+        try (Scanner scanner = client.createScanner(table, AUTHS)) {
+            scanner.setSamplerConfiguration(SAMPLER);
+            for (Entry<Key,Value> entry : scanner) {
+                entries.add(entry.getKey() + " " + entry.getValue());
+            }
+        }
+        assertTrue(!entries.isEmpty() && entries.size() < 20, "sampled " + entries.size());
+        return entries;
+    }
+}
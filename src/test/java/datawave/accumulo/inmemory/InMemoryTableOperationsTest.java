@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.accumulo.core.client.AccumuloClient;
+import org.apache.accumulo.core.client.AccumuloException;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.PluginEnvironment;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.TableNotFoundException;
+import org.apache.accumulo.core.client.admin.NewTableConfiguration;
+import org.apache.accumulo.core.client.sample.RowSampler;
+import org.apache.accumulo.core.client.sample.SamplerConfiguration;
+import org.apache.accumulo.core.conf.Property;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.TableId;
+import org.apache.accumulo.core.metadata.RootTable;
+import org.apache.accumulo.core.sample.impl.SamplerConfigurationImpl;
+import org.apache.accumulo.core.security.Authorizations;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class InMemoryTableOperationsTest {
+    
+    private static final SamplerConfiguration SAMPLER = new SamplerConfiguration(RowSampler.class.getName())
+                    .setOptions(Map.of("hasher", "murmur3_32", "modulus", "2"));
+    
+    private InMemoryInstance instance;
+    private AccumuloClient client;
+    
+    @BeforeEach
+    public void setup() throws Exception {
+        instance = new InMemoryInstance();
+        client = new InMemoryAccumuloClient("root", instance);
+    }
+    
+    @Test
+    public void testCreateWithProperties() throws Exception {
+        client.tableOperations().create("test", new NewTableConfiguration().enableSampling(SAMPLER)
+                        .setProperties(Collections.singletonMap(Property.TABLE_SPLIT_THRESHOLD.getKey(), "10K")));
+        
+        assertEquals(SAMPLER, client.tableOperations().getSamplerConfiguration("test"));
+        assertEquals("10K", client.tableOperations().getConfiguration("test").get(Property.TABLE_SPLIT_THRESHOLD.getKey()));
+        
+        write();
+        long sampled = countSample();
+        assertTrue(sampled > 0 && sampled < 100, "sampled " + sampled);
+    }
+    
+    @Test
+    public void testSamplerProperties() throws Exception {
+        client.tableOperations().create("test");
+        write();
+        
+        for (Map.Entry<String,String> entry : new SamplerConfigurationImpl(SAMPLER).toTablePropertiesMap().entrySet()) {
+            client.tableOperations().setProperty("test", entry.getKey(), entry.getValue());
+        }
+        assertEquals(SAMPLER, client.tableOperations().getSamplerConfiguration("test"));
+        long sampled = countSample();
+        assertTrue(sampled > 0 && sampled < 100, "sampled " + sampled);
+        
+        client.tableOperations().modifyProperties("test", properties -> properties.keySet().removeIf(key -> key.startsWith(Property.TABLE_SAMPLER.getKey())));
+        assertNull(client.tableOperations().getSamplerConfiguration("test"));
+    }
+    
+    @Test
+    public void testRejectMalformedProperties() throws Exception {
+        client.tableOperations().create("test");
+        client.tableOperations().setProperty("test", InMemoryTable.MEMTABLE_MAX_ENTRIES, "50");
+        
+        assertThrows(AccumuloException.class, () -> client.tableOperations().setProperty("test", InMemoryTable.MEMTABLE_MAX_ENTRIES, "abc"));
+        assertThrows(IllegalArgumentException.class, () -> client.tableOperations().modifyProperties("test", properties -> {
+            properties.put(Property.TABLE_SPLIT_THRESHOLD.getKey(), "10K");
+            properties.put(InMemoryTable.SCAN_CACHE_ENTRIES, "-1");
+        }));
+        
+        // nothing was changed, and the table can still be written and scanned
+        Map<String,String> properties = client.tableOperations().getConfiguration("test");
+        assertEquals("50", properties.get(InMemoryTable.MEMTABLE_MAX_ENTRIES));
+        assertNull(properties.get(InMemoryTable.SCAN_CACHE_ENTRIES));
+        assertEquals(Property.TABLE_SPLIT_THRESHOLD.getDefaultValue(), properties.get(Property.TABLE_SPLIT_THRESHOLD.getKey()));
+        write();
+        try (Scanner scanner = client.createScanner("test", Authorizations.EMPTY)) {
+            assertEquals(100, scanner.stream().count());
+        }
+    }
+    
+    @Test
+    public void testPluginEnvironmentTableNames() throws Exception {
+        client.tableOperations().create("test");
+        TableId id = TableId.of(client.tableOperations().tableIdMap().get("test"));
+        PluginEnvironment env = instance.acu.tables.get("test").getPluginEnvironment();
+        
+        assertEquals("test", env.getTableName(id));
+        assertEquals(RootTable.NAME, env.getTableName(RootTable.ID));
+        client.tableOperations().rename("test", "renamed");
+        assertEquals("renamed", env.getTableName(id));
+        assertThrows(TableNotFoundException.class, () -> env.getTableName(TableId.of("unknown")));
+    }
+    
+    private void write() throws Exception {
+        try (BatchWriter writer = client.createBatchWriter("test")) {
+            for (int i = 0; i < 100; i++) {
+                Mutation m = new Mutation(String.format("row%03d", i));
+                m.put("cf", "cq", "v" + i);
+                writer.addMutation(m);
+            }
+        }
+    }
+    
+    private long countSample() throws Exception {
+        try (Scanner scanner = client.createScanner("test", Authorizations.EMPTY)) {
+            scanner.setSamplerConfiguration(SAMPLER);
+            return scanner.stream().count();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.accumulo.core.client.AccumuloClient;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.admin.NewTableConfiguration;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.junit.jupiter.api.Test;
+
+public class InMemoryTableTest {
+    
+    @Test
+    public void testFreezeInBackground() throws Exception {
+        InMemoryInstance instance = new InMemoryInstance();
+        AccumuloClient client = new InMemoryAccumuloClient("root", instance);
+        client.tableOperations().create("test",
+                        new NewTableConfiguration().setProperties(Collections.singletonMap(InMemoryTable.MEMTABLE_MAX_ENTRIES, "100")));
+        try (BatchWriter writer = client.createBatchWriter("test")) {
+            for (int i = 0; i < 5000; i++) {
+                Mutation m = new Mutation(String.format("row%04d", i));
+                m.put("cf", "cq", "v" + i);
+                writer.addMutation(m);
+                if (i % 250 == 0)
+                    writer.flush();
+            }
+        }
+        assertEquals(5000, count(client));
+        
+        client.tableOperations().compact("test", null, null, true, true);
+        assertEquals(1, instance.acu.tables.get("test").sources.runs.size());
+        assertEquals(5000, count(client));
+    }
+    
+    @Test
+    public void testClose() throws Exception {
+        InMemoryInstance instance = new InMemoryInstance();
+        AccumuloClient client = new InMemoryAccumuloClient("root", instance);
+        client.tableOperations().create("test",
+                        new NewTableConfiguration().setProperties(Collections.singletonMap(InMemoryTable.MEMTABLE_MAX_ENTRIES, "100")));
+        write(client, 0, 2500);
+        instance.close();
+        assertNull(instance.acu.getCompactionExecutor());
+        assertEquals(2500, count(client));
+        
+        // full memtables are now frozen by the writer
+        write(client, 2500, 5000);
+        assertEquals(5000, count(client));
+    }
+    
+    @Test
+    public void testScansSeeWholeMutations() throws Exception {
+        InMemoryInstance instance = new InMemoryInstance();
+        AccumuloClient client = new InMemoryAccumuloClient("root", instance);
+        client.tableOperations().create("test");
+        InMemoryTable table = instance.acu.tables.get("test");
+        int writers = 4;
+        int rows = 500;
+        int columns = 20;
+        
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < writers; w++) {
+                int writer = w;
+                futures.add(executor.submit(() -> {
+                    for (int i = writer; i < rows; i += writers) {
+                        Mutation m = new Mutation(String.format("row%04d", i));
+                        for (int c = 0; c < columns; c++) {
+                            m.put("cf", "cq" + c, "v");
+                        }
+                        table.addMutation(m);
+                    }
+                    return null;
+                }));
+            }
+            
+            // every row a scan sees has all of its columns
+            boolean done = false;
+            while (!done) {
+                done = futures.stream().allMatch(Future::isDone);
+                Map<String,Integer> counts = new HashMap<>();
+                try (Scanner scanner = client.createScanner("test", Authorizations.EMPTY)) {
+                    for (Entry<Key,Value> entry : scanner) {
+                        counts.merge(entry.getKey().getRow().toString(), 1, Integer::sum);
+                    }
+                }
+                for (Entry<String,Integer> count : counts.entrySet()) {
+                    assertEquals(columns, count.getValue(), count.getKey());
+                }
+                if (done)
+                    assertEquals(rows, counts.size());
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private static void write(AccumuloClient client, int start, int end) throws Exception {
+        try (BatchWriter writer = client.createBatchWriter("test")) {
+            for (int i = start; i < end; i++) {
+                Mutation m = new Mutation(String.format("row%04d", i));
+                m.put("cf", "cq", "v" + i);
+                writer.addMutation(m);
+                if (i % 250 == 0)
+                    writer.flush();
+            }
+        }
+    }
+    
+    private static int count(AccumuloClient client) throws Exception {
+        int count = 0;
+        try (Scanner scanner = client.createScanner("test", Authorizations.EMPTY)) {
+            for (Entry<Key,Value> entry : scanner) {
+                assertEquals("v" + Integer.parseInt(entry.getKey().getRow().toString().substring(3)), entry.getValue().toString());
+                count++;
+            }
+        }
+        return count;
+    }
+}
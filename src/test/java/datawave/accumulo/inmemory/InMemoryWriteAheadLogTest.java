@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package datawave.accumulo.inmemory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.accumulo.core.client.AccumuloClient;
+import org.apache.accumulo.core.client.BatchWriter;
+import org.apache.accumulo.core.client.Scanner;
+import org.apache.accumulo.core.client.admin.NewTableConfiguration;
+import org.apache.accumulo.core.data.Key;
+import org.apache.accumulo.core.data.Mutation;
+import org.apache.accumulo.core.data.Value;
+import org.apache.accumulo.core.security.Authorizations;
+import org.apache.hadoop.io.Text;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class InMemoryWriteAheadLogTest {
+    
+    @TempDir
+    Path dir;
+    
+    private InMemoryInstance instance;
+    private AccumuloClient client;
+    
+    @BeforeEach
+    public void setup() throws Exception {
+        instance = new InMemoryInstance();
+        client = new InMemoryAccumuloClient("root", instance);
+        client.tableOperations().create("source");
+        write(client, "source", 0, 10);
+    }
+    
+    @Test
+    public void testRecoverFromCheckpointAndLog() throws Exception {
+        String walDir = dir.resolve("wal").toString();
+        String checkpointDir = dir.resolve("checkpoint").toString();
+        instance.openWriteAheadLog(walDir);
+        instance.checkpoint(checkpointDir);
+        
+        // logged records follow the table through a rename
+        client.tableOperations().rename("source", "renamed");
+        write(client, "renamed", 10, 20);
+        client.tableOperations().deleteRows("renamed", new Text("row03"), new Text("row12"));
+        instance.closeWriteAheadLog();
+        
+        InMemoryInstance restored = new InMemoryInstance();
+        restored.importSnapshot(checkpointDir);
+        restored.openWriteAheadLog(walDir);
+        
+        List<String> expected = read(client, "renamed");
+        assertEquals(11, expected.size());
+        assertEquals(expected, read(new InMemoryAccumuloClient("root", restored), "source"));
+    }
+    
+    @Test
+    public void testReplayFailsForMissingTable() throws Exception {
+        String walDir = dir.resolve("wal").toString();
+        instance.openWriteAheadLog(walDir);
+        write(client, "source", 10, 20);
+        instance.closeWriteAheadLog();
+        
+        assertThrows(IOException.class, () -> new InMemoryInstance().openWriteAheadLog(walDir));
+    }
+    
+    @Test
+    public void testReplaySkipsSegments() throws Exception {
+        String walDir = dir.resolve("wal").toString();
+        Map<String,String> props = new HashMap<>();
+        props.put(InMemoryTable.SEGMENT_DIR, dir.resolve("segments").toString());
+        props.put(InMemoryTable.MEMTABLE_MAX_ENTRIES, "10");
+        // without the versioning iterator, records replayed on top of the segments show up as duplicates
+        NewTableConfiguration config = new NewTableConfiguration().withoutDefaultIterators().setProperties(props);
+        
+        InMemoryInstance segmented = new InMemoryInstance();
+        AccumuloClient segmentedClient = new InMemoryAccumuloClient("root", segmented);
+        segmentedClient.tableOperations().create("segmented", config);
+        segmented.openWriteAheadLog(walDir);
+        write(segmentedClient, "segmented", 0, 45);
+        segmentedClient.tableOperations().deleteRows("segmented", new Text("row03"), new Text("row12"));
+        write(segmentedClient, "segmented", 50, 75);
+        List<String> expected = read(segmentedClient, "segmented");
+        segmented.close();
+        assertEquals(61, expected.size());
+        
+        InMemoryInstance restored = new InMemoryInstance();
+        AccumuloClient restoredClient = new InMemoryAccumuloClient("root", restored);
+        restoredClient.tableOperations().create("segmented", config);
+        restored.openWriteAheadLog(walDir);
+        assertEquals(expected, read(restoredClient, "segmented"));
+        restored.close();
+    }
+    
+    private static void write(AccumuloClient client, String table, int from, int to) throws Exception {
+        try (BatchWriter writer = client.createBatchWriter(table)) {
+            for (int i = from; i < to; i++) {
+                Mutation m = new Mutation(String.format("row%02d", i));
+                m.put("cf", "cq", "v" + i);
+                writer.addMutation(m);
+            }
+        }
+    }
+    
+    private static List<String> read(AccumuloClient client, String table) throws Exception {
+        List<String> entries = new ArrayList<>();
+        try (Scanner scanner = client.createScanner(table, Authorizations.EMPTY)) {
+            for (Entry<Key,Value> entry : scanner) {
+                entries.add(entry.getKey() + " " + entry.getValue());
+            }
+        }
+        return entries;
+    }
+}